@@ -0,0 +1,95 @@
+package test;
+
+class Book extends Item {
+    private volatile String author;
+    private volatile int pageCount;
+    private volatile int year;
+
+    public Book(String title, String author, int type, int pageCount, int year) {
+        super(title, type);
+        this.author = author;
+        this.pageCount = pageCount;
+        this.year = year;
+    }
+
+    Book(int id, String title, String author, int type, int pageCount, int year) {
+        super(id, title, type);
+        this.author = author;
+        this.pageCount = pageCount;
+        this.year = year;
+    }
+
+    public int getPopularityCount() {
+        Library owner = library;
+        return owner != null ? (int) owner.getPopularity().getCount(id) : 0;
+    }
+
+    public void incrementPopularityCount() {
+        Library owner = library;
+        if (owner != null) {
+            owner.viewItem(id);
+        }
+    }
+    
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getYear() {
+        return year;
+    }
+    public void setTitle(String title) {
+        Library owner = library;
+        if (owner != null) {
+            owner.renameItem(this, title); //keep title index in sync
+        } else {
+            assignTitle(title);
+        }
+    }
+
+    //on a stored book the setters go through the library, which keeps its
+    //indexes and listeners up to date, like updateBook
+    public void setAuthor(String author) {
+        Library owner = library;
+        if (owner != null) {
+            owner.editBook(this, book -> book.assignAuthor(author));
+        } else {
+            assignAuthor(author);
+        }
+    }
+
+    public void setPageCount(int pageCount) {
+        Library owner = library;
+        if (owner != null) {
+            owner.editBook(this, book -> book.assignPageCount(pageCount));
+        } else {
+            assignPageCount(pageCount);
+        }
+    }
+
+    public void setYear(int year) {
+        Library owner = library;
+        if (owner != null) {
+            owner.editBook(this, book -> book.assignYear(year));
+        } else {
+            assignYear(year);
+        }
+    }
+
+    //how Library stores the fields; books backed by a store write them there
+    void assignAuthor(String author) {
+        this.author = author;
+    }
+
+    void assignPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    void assignYear(int year) {
+        this.year = year;
+    }
+}
@@ -0,0 +1,388 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//year and page count indexes over the library's books, kept current through
+//Library events (setBookYear, setBookPageCount and updateBook all fire one)
+class BookRangeIndex implements LibraryListener {
+    private final Library library;
+    private final IntRangeIndex byYear;
+    private final IntRangeIndex byPageCount;
+
+    public BookRangeIndex(Library library) {
+        this.library = library;
+        this.byYear = new IntRangeIndex();
+        this.byPageCount = new IntRangeIndex();
+    }
+
+    //books with from <= year <= to, in year order
+    public List<Book> getBooksByYear(int from, int to) {
+        return toBooks(byYear.range(from, to));
+    }
+
+    //books with min <= pageCount <= max, in page count order
+    public List<Book> getBooksByPageCount(int min, int max) {
+        return toBooks(byPageCount.range(min, max));
+    }
+
+    //walks whichever range is narrower and checks the other field directly
+    public List<Book> getBooks(int fromYear, int toYear, int minPages, int maxPages) {
+        boolean yearNarrower = byYear.count(fromYear, toYear) <= byPageCount.count(minPages, maxPages);
+        List<Book> candidates = yearNarrower ? getBooksByYear(fromYear, toYear) : getBooksByPageCount(minPages, maxPages);
+        List<Book> books = new ArrayList<>();
+        for (Book book : candidates) {
+            if (book.getYear() >= fromYear && book.getYear() <= toYear
+                    && book.getPageCount() >= minPages && book.getPageCount() <= maxPages) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            byYear.put(book.getId(), book.getYear());
+            byPageCount.put(book.getId(), book.getPageCount());
+        }
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        byYear.remove(item.getId());
+        byPageCount.remove(item.getId());
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        itemAdded(item);
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+    }
+
+    @Override
+    public void itemsAdded(List<Item> items) {
+        int[] ids = new int[items.size()];
+        int[] years = new int[items.size()];
+        int[] pageCounts = new int[items.size()];
+        int count = 0;
+        for (Item item : items) {
+            if (item instanceof Book) {
+                Book book = (Book) item;
+                ids[count] = book.getId();
+                years[count] = book.getYear();
+                pageCounts[count] = book.getPageCount();
+                count++;
+            }
+        }
+        byYear.putAll(ids, years, count);
+        byPageCount.putAll(ids, pageCounts, count);
+    }
+
+    @Override
+    public void itemsRemoved(List<Item> items) {
+        int[] ids = new int[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).getId();
+        }
+        byYear.removeAll(ids, ids.length);
+        byPageCount.removeAll(ids, ids.length);
+    }
+
+    @Override
+    public void itemsUpdated(List<Item> items) {
+        itemsAdded(items);
+    }
+
+    private List<Book> toBooks(int[] ids) {
+        List<Book> books = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Item item = library.getItemById(id);
+            if (item instanceof Book) {
+                books.add((Book) item);
+            }
+        }
+        return books;
+    }
+}
+
+//sorted (key, id) pairs packed into longs, key in the high half so plain long
+//order is key order. Entries live in sorted blocks of at most 2 * BLOCK_SIZE,
+//found by binary search on each block's last entry, so inserts and deletes
+//shift one block rather than the whole index. A Fenwick tree over the block
+//sizes gives the number of entries before a block in O(log blocks), so
+//counting a range never walks the blocks
+class IntRangeIndex {
+    private static final int BLOCK_SIZE = 512;
+    private static final double REBUILD_FRACTION = 0.125;
+
+    private final ReadWriteLock lock;
+    private long[][] blocks;
+    private int[] blockSizes;
+    private int blockCount;
+    private int[] sizeTree; //Fenwick tree over blockSizes, 1-based
+    private final IntIntMap keys; //id -> indexed key, to find old entries
+
+    public IntRangeIndex() {
+        lock = new ReentrantReadWriteLock();
+        blocks = new long[][] { new long[BLOCK_SIZE * 2] };
+        blockSizes = new int[1];
+        blockCount = 1;
+        sizeTree = new int[2];
+        keys = new IntIntMap(1024);
+    }
+
+    //adds id under key, moving it if it was indexed under another key
+    public void put(int id, int key) {
+        lock.writeLock().lock();
+        try {
+            putLocked(id, key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //puts the first count ids under their keys. A batch that is large next to
+    //the index rebuilds the blocks with one sort instead of shifting entries
+    public void putAll(int[] ids, int[] newKeys, int count) {
+        lock.writeLock().lock();
+        try {
+            if (count < REBUILD_FRACTION * keys.size()) {
+                for (int i = 0; i < count; i++) {
+                    putLocked(ids[i], newKeys[i]);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    keys.put(ids[i], newKeys[i]);
+                }
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(int[] ids, int count) {
+        lock.writeLock().lock();
+        try {
+            if (count < REBUILD_FRACTION * keys.size()) {
+                for (int i = 0; i < count; i++) {
+                    removeLocked(ids[i]);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    keys.remove(ids[i]);
+                }
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putLocked(int id, int key) {
+        if (keys.containsKey(id)) {
+            int oldKey = keys.get(id, 0);
+            if (oldKey == key) {
+                return;
+            }
+            removeEntry(entry(oldKey, id));
+        }
+        keys.put(id, key);
+        insertEntry(entry(key, id));
+    }
+
+    private void removeLocked(int id) {
+        if (keys.containsKey(id)) {
+            removeEntry(entry(keys.get(id, 0), id));
+            keys.remove(id);
+        }
+    }
+
+    //refills the blocks from keys, each block half full like a fresh split
+    private void rebuild() {
+        long[] entries = new long[keys.size()];
+        int[] filled = {0};
+        keys.forEach((id, key) -> entries[filled[0]++] = entry(key, id));
+        int count = filled[0];
+        Arrays.sort(entries);
+        blockCount = Math.max(1, (count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        blocks = new long[blockCount][];
+        blockSizes = new int[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            int from = block * BLOCK_SIZE;
+            int size = Math.min(BLOCK_SIZE, count - from);
+            blocks[block] = new long[BLOCK_SIZE * 2];
+            System.arraycopy(entries, from, blocks[block], 0, size);
+            blockSizes[block] = size;
+        }
+        rebuildSizeTree();
+    }
+
+    //ids with from <= key <= to, in key order
+    public int[] range(int from, int to) {
+        lock.readLock().lock();
+        try {
+            int[] ids = new int[16];
+            int count = 0;
+            long last = entry(to, -1);
+            int block = findBlock(entry(from, 0));
+            int pos = position(block, entry(from, 0));
+            for (; block < blockCount; block++, pos = 0) {
+                for (; pos < blockSizes[block]; pos++) {
+                    long e = blocks[block][pos];
+                    if (e > last) {
+                        return Arrays.copyOf(ids, count);
+                    }
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = (int) e;
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //number of ids with from <= key <= to, without copying them
+    public int count(int from, int to) {
+        lock.readLock().lock();
+        try {
+            if (from > to) {
+                return 0;
+            }
+            //entry(from, 0) is the smallest entry with key from, so the ranks
+            //below it need no - 1, which would wrap at Integer.MIN_VALUE
+            return rank(entry(to, -1), true) - rank(entry(from, 0), false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //number of entries < e, or <= e when inclusive
+    private int rank(long e, boolean inclusive) {
+        int block = findBlock(e);
+        int pos = Arrays.binarySearch(blocks[block], 0, blockSizes[block], e);
+        int inBlock = pos >= 0 ? (inclusive ? pos + 1 : pos) : -pos - 1;
+        return entriesBefore(block) + inBlock;
+    }
+
+    private int entriesBefore(int block) {
+        int sum = 0;
+        for (int i = block; i > 0; i -= i & -i) {
+            sum += sizeTree[i];
+        }
+        return sum;
+    }
+
+    private void adjustSize(int block, int delta) {
+        blockSizes[block] += delta;
+        for (int i = block + 1; i <= blockCount; i += i & -i) {
+            sizeTree[i] += delta;
+        }
+    }
+
+    //after blocks were split, dropped or refilled; O(blocks)
+    private void rebuildSizeTree() {
+        if (sizeTree.length < blockCount + 1) {
+            sizeTree = new int[blocks.length + 1];
+        } else {
+            Arrays.fill(sizeTree, 0);
+        }
+        for (int i = 1; i <= blockCount; i++) {
+            sizeTree[i] += blockSizes[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= blockCount) {
+                sizeTree[parent] += sizeTree[i];
+            }
+        }
+    }
+
+    private static long entry(int key, int id) {
+        return ((long) key << 32) | (id & 0xffffffffL);
+    }
+
+    //first block whose last entry is >= e, or the last block
+    private int findBlock(long e) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int size = blockSizes[mid];
+            if (size > 0 && blocks[mid][size - 1] < e) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int position(int block, long e) {
+        int pos = Arrays.binarySearch(blocks[block], 0, blockSizes[block], e);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    private void insertEntry(long e) {
+        int block = findBlock(e);
+        int pos = position(block, e);
+        long[] entries = blocks[block];
+        System.arraycopy(entries, pos, entries, pos + 1, blockSizes[block] - pos);
+        entries[pos] = e;
+        adjustSize(block, 1);
+        if (blockSizes[block] == entries.length) {
+            splitBlock(block);
+            rebuildSizeTree();
+        }
+    }
+
+    private void removeEntry(long e) {
+        int block = findBlock(e);
+        int pos = Arrays.binarySearch(blocks[block], 0, blockSizes[block], e);
+        if (pos < 0) {
+            return;
+        }
+        long[] entries = blocks[block];
+        System.arraycopy(entries, pos + 1, entries, pos, blockSizes[block] - pos - 1);
+        adjustSize(block, -1);
+        if (blockSizes[block] == 0 && blockCount > 1) {
+            System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+            System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+            blockCount--;
+            rebuildSizeTree();
+        }
+    }
+
+    private void splitBlock(int block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, block + 1, blocks, block + 2, blockCount - block - 1);
+        System.arraycopy(blockSizes, block + 1, blockSizes, block + 2, blockCount - block - 1);
+        long[] upper = new long[BLOCK_SIZE * 2];
+        System.arraycopy(blocks[block], BLOCK_SIZE, upper, 0, BLOCK_SIZE);
+        blocks[block + 1] = upper;
+        blockSizes[block + 1] = BLOCK_SIZE;
+        blockSizes[block] = BLOCK_SIZE;
+        blockCount++;
+    }
+}
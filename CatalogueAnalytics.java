@@ -0,0 +1,150 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//catalogue reports kept up to date incrementally. Items are split by id into
+//partitions of PARTITION_SIZE ids, each with its own CatalogueStats, and the
+//totals are the sum of the partitions. Library events only mark the item's
+//partition dirty. refresh recomputes the dirty partitions from a snapshot on
+//the fork-join pool and merges (new - old) up the task tree into the totals,
+//so a refresh costs what changed since the last one, not the catalogue size
+class CatalogueAnalytics implements LibraryListener {
+    private static final int PARTITION_BITS = 12;
+    static final int PARTITION_SIZE = 1 << PARTITION_BITS;
+
+    private final Library library;
+    //partitions changed since the last refresh
+    private final IntObjectMap<Boolean> dirty;
+    private volatile boolean built;
+    //guarded by this
+    private CatalogueStats[] partitions;
+    private final CatalogueStats totals;
+
+    public CatalogueAnalytics(Library library) {
+        this.library = library;
+        this.dirty = new IntObjectMap<>();
+        this.partitions = new CatalogueStats[0];
+        this.totals = new CatalogueStats();
+        library.addLibraryListener(this);
+    }
+
+    //true when the next refresh would change something
+    public boolean isDirty() {
+        return !built || dirty.size() > 0;
+    }
+
+    //brings the totals up to date and reports them with the topAuthors
+    //leading authors. The first call computes every partition
+    public synchronized CatalogueStats.Report refresh(int topAuthors) {
+        long start = LibraryMetrics.REFRESH_STATISTICS.start();
+        try {
+            //marks are cleared before the snapshot is taken, so a change made
+            //meanwhile is either in the snapshot or marks its partition again
+            int[] todo = takeDirty();
+            LibrarySnapshot snapshot = library.snapshot();
+            if (!built) {
+                int last = snapshot.size() > 0 ? snapshot.getItems().get(snapshot.size() - 1).getId() >>> PARTITION_BITS : -1;
+                todo = new int[last + 1];
+                for (int i = 0; i < todo.length; i++) {
+                    todo[i] = i;
+                }
+                built = true;
+            }
+            if (todo.length > 0) {
+                int needed = todo[todo.length - 1] + 1;
+                if (needed > partitions.length) {
+                    partitions = Arrays.copyOf(partitions, needed);
+                }
+                totals.merge(ForkJoinPool.commonPool().invoke(new RefreshTask(snapshot, todo, 0, todo.length)), 1);
+            }
+            return totals.report(topAuthors);
+        } finally {
+            LibraryMetrics.REFRESH_STATISTICS.record(start);
+        }
+    }
+
+    //sorted partition numbers
+    private int[] takeDirty() {
+        List<Integer> marked = new ArrayList<>();
+        dirty.forEach((partition, mark) -> marked.add(partition));
+        int[] todo = new int[marked.size()];
+        for (int i = 0; i < todo.length; i++) {
+            todo[i] = marked.get(i);
+            dirty.remove(todo[i]);
+        }
+        Arrays.sort(todo);
+        return todo;
+    }
+
+    //recomputes todo[from..to) and returns how much the totals change
+    private final class RefreshTask extends RecursiveTask<CatalogueStats> {
+        private final LibrarySnapshot snapshot;
+        private final int[] todo;
+        private final int from;
+        private final int to;
+
+        RefreshTask(LibrarySnapshot snapshot, int[] todo, int from, int to) {
+            this.snapshot = snapshot;
+            this.todo = todo;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected CatalogueStats compute() {
+            if (to - from == 1) {
+                int partition = todo[from];
+                CatalogueStats fresh = new CatalogueStats();
+                PopularityTracker popularity = library.getPopularity();
+                int first = partition << PARTITION_BITS;
+                snapshot.forEachInRange(first, first + PARTITION_SIZE - 1,
+                        item -> fresh.add(item, popularity.getCount(item.getId())));
+                CatalogueStats change = fresh.copy();
+                if (partitions[partition] != null) {
+                    change.merge(partitions[partition], -1);
+                }
+                //each task owns its slots, join publishes them to refresh
+                partitions[partition] = fresh;
+                return change;
+            }
+            int middle = (from + to) >>> 1;
+            RefreshTask left = new RefreshTask(snapshot, todo, from, middle);
+            left.fork();
+            CatalogueStats change = new RefreshTask(snapshot, todo, middle, to).compute();
+            change.merge(left.join(), 1);
+            return change;
+        }
+    }
+
+    private void markDirty(Item item) {
+        int partition = item.getId() >>> PARTITION_BITS;
+        //views mark the same few partitions over and over, the read keeps that lock-free
+        if (dirty.get(partition) == null) {
+            dirty.put(partition, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        markDirty(item);
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        markDirty(item);
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        markDirty(item);
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        markDirty(item);
+    }
+}
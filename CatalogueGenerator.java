@@ -0,0 +1,60 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//reproducible synthetic catalogues for benchmarks and load tests: the same
+//seed always gives the same items. Titles are unique and never contain the
+//comma the items.txt format splits on. About one item in ten is not a book
+class CatalogueGenerator {
+    private static final String[] ADJECTIVES = {
+        "Silent", "Hidden", "Last", "Broken", "Golden", "Distant", "Burning", "Forgotten",
+        "Crimson", "Endless", "Quiet", "Wild", "Hollow", "Northern", "Bright", "Secret"
+    };
+    private static final String[] NOUNS = {
+        "River", "Garden", "Empire", "Kingdom", "Winter", "Harbor", "Mountain", "Shadow",
+        "Voyage", "Promise", "Library", "Orchard", "Storm", "Island", "Machine", "Letter"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Ada", "Omar", "Lena", "Ravi", "Mei", "Tomas", "Sara", "Kofi", "Ines", "Yusuf", "Nora", "Hugo"
+    };
+    private static final String[] LAST_NAMES = {
+        "Khan", "Novak", "Okafor", "Lindqvist", "Tanaka", "Moreau", "Silva", "Haddad", "Kowalski", "Reyes"
+    };
+
+    private final Random random;
+    private int generated;
+
+    public CatalogueGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public Item next() {
+        int n = generated++;
+        String title = "The " + pick(ADJECTIVES) + " " + pick(NOUNS) + " " + n;
+        if (random.nextInt(10) == 0) {
+            return new Item(title, 1 + random.nextInt(3));
+        }
+        //page counts and years cluster the way a real catalogue does
+        int pageCount = Math.max(24, (int) (320 + random.nextGaussian() * 140));
+        int year = 2024 - (int) Math.min(300, Math.abs(random.nextGaussian() * 40));
+        return new Book(title, author(), 0, pageCount, year);
+    }
+
+    public List<Item> generate(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(next());
+        }
+        return items;
+    }
+
+    private String author() {
+        return pick(FIRST_NAMES) + " " + pick(LAST_NAMES) + " " + random.nextInt(5000);
+    }
+
+    private String pick(String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+}
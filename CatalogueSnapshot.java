@@ -0,0 +1,360 @@
+package test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//binary catalogue snapshot. Version 2 layout:
+//  header      magic, version, itemCount, stringCount (int), stringIndexPos, stringDataPos (long)
+//  columns     id, type, titleRef, authorRef, pageCount, year as int[itemCount], views as long[itemCount]
+//  stringIndex int[stringCount + 1] byte offsets into stringData
+//  stringData  UTF-8 bytes, every distinct title and author stored once
+//authorRef is -1 for items that are not books. The file is read through a
+//memory map and each string is decoded once however many items share it.
+//read hands out plain items that keep nothing of the map, since they go on
+//to live in a Library; scan hands out views of their row that decode a
+//string only when it is asked for, for callers done with them when it
+//returns. Version 1 files (one record after another) are still read
+class CatalogueSnapshot {
+    static final int MAGIC = 0x4C42534E;
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    //chunks start small so the first items show up at once, then grow so the
+    //per-chunk work (table merge, index updates) stays a small share
+    private static final int FIRST_CHUNK = 1024;
+    private static final int MAX_CHUNK = 65536;
+
+    //receives a snapshot a chunk at a time, in id order, with each item's view
+    //count and the fraction of the snapshot read so far
+    interface ChunkSink {
+        void accept(List<Item> items, long[] views, double fraction);
+    }
+
+    public static void write(Path file, List<Item> items, PopularityTracker popularity) throws IOException {
+        int n = items.size();
+        int[] ids = new int[n];
+        int[] types = new int[n];
+        int[] titleRefs = new int[n];
+        int[] authorRefs = new int[n];
+        int[] pageCounts = new int[n];
+        int[] years = new int[n];
+        long[] views = new long[n];
+        Map<String, Integer> stringRefs = new HashMap<>();
+        StringTable strings = new StringTable();
+        for (int i = 0; i < n; i++) {
+            Item item = items.get(i);
+            ids[i] = item.getId();
+            types[i] = item.getType();
+            titleRefs[i] = strings.ref(stringRefs, item.getTitle());
+            authorRefs[i] = -1;
+            if (item instanceof Book) {
+                Book book = (Book) item;
+                authorRefs[i] = strings.ref(stringRefs, book.getAuthor());
+                pageCounts[i] = book.getPageCount();
+                years[i] = book.getYear();
+            }
+            views[i] = popularity.getCount(item.getId());
+        }
+
+        long stringIndexPos = HEADER_SIZE + (long) n * (6 * 4 + 8);
+        long stringDataPos = stringIndexPos + (strings.count + 1) * 4L;
+        try (FileOutputStream fileOut = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(strings.count);
+            out.writeLong(stringIndexPos);
+            out.writeLong(stringDataPos);
+            for (int[] column : new int[][] { ids, types, titleRefs, authorRefs, pageCounts, years }) {
+                for (int value : column) {
+                    out.writeInt(value);
+                }
+            }
+            for (long value : views) {
+                out.writeLong(value);
+            }
+            for (int i = 0; i <= strings.count; i++) {
+                out.writeInt(strings.offsets[i]);
+            }
+            out.write(strings.data.toByteArray());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    //adds every stored item to library and restores its view count
+    public static void read(Path file, Library library) throws IOException {
+        read(file, (items, views, fraction) -> {
+            for (int i = 0; i < items.size(); i++) {
+                library.getPopularity().restore(items.get(i).getId(), views[i]);
+            }
+            library.addAll(items);
+        });
+    }
+
+    //every id in the snapshot is reserved before the first chunk, so items
+    //created while later chunks are read can not take one
+    public static void read(Path file, ChunkSink sink) throws IOException {
+        read(file, sink, false);
+    }
+
+    //the same with items that are views of the mapped file, only valid for
+    //reading while the sink runs
+    public static void scan(Path file, ChunkSink sink) throws IOException {
+        read(file, sink, true);
+    }
+
+    private static void read(Path file, ChunkSink sink, boolean views) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException("Unrecognised snapshot file: " + file);
+            }
+            int version = buf.getInt(4);
+            if (version == 1) {
+                readVersion1(file, sink);
+            } else if (version == VERSION) {
+                readColumns(buf, sink, views);
+            } else {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+        }
+    }
+
+    private static void readColumns(ByteBuffer buf, ChunkSink sink, boolean mapped) throws IOException {
+        Columns columns = new Columns(buf);
+        int n = columns.count;
+        int maxId = 0;
+        for (int i = 0; i < n; i++) {
+            maxId = Math.max(maxId, columns.id(i));
+        }
+        IdAllocator.skipThrough(maxId);
+        int chunkSize = FIRST_CHUNK;
+        List<Item> items = new ArrayList<>(Math.min(n, chunkSize));
+        long[] views = new long[Math.min(n, chunkSize)];
+        for (int i = 0; i < n; i++) {
+            views[items.size()] = columns.views(i);
+            items.add(mapped ? columns.item(i) : columns.copy(i));
+            if (items.size() == chunkSize || i == n - 1) {
+                sink.accept(items, views, (double) (i + 1) / n);
+                chunkSize = Math.min(chunkSize * 2, MAX_CHUNK);
+                items = new ArrayList<>(Math.min(n - i - 1, chunkSize));
+                views = new long[Math.min(n - i - 1, chunkSize)];
+            }
+        }
+    }
+
+    //the mapped columns of a version 2 snapshot. The mapping stays valid after
+    //the channel is closed, for as long as a view still refers to it
+    private static final class Columns {
+        final ByteBuffer buf;
+        final int count;
+        private final int stringIndexPos;
+        private final int stringDataPos;
+        private final int idCol;
+        private final int typeCol;
+        private final int titleCol;
+        private final int authorCol;
+        private final int pageCol;
+        private final int yearCol;
+        private final int viewCol;
+        //strings decoded so far by reference number; a race only decodes one twice
+        private final String[] decoded;
+
+        Columns(ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            count = buf.getInt(8);
+            int stringCount = buf.getInt(12);
+            stringIndexPos = (int) buf.getLong(16);
+            stringDataPos = (int) buf.getLong(24);
+            if (stringDataPos > buf.limit() || stringIndexPos + (stringCount + 1) * 4L > stringDataPos
+                    || HEADER_SIZE + count * 32L > stringIndexPos) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            decoded = new String[stringCount];
+            idCol = HEADER_SIZE;
+            typeCol = idCol + count * 4;
+            titleCol = typeCol + count * 4;
+            authorCol = titleCol + count * 4;
+            pageCol = authorCol + count * 4;
+            yearCol = pageCol + count * 4;
+            viewCol = yearCol + count * 4;
+        }
+
+        int id(int row) {
+            return buf.getInt(idCol + row * 4);
+        }
+
+        long views(int row) {
+            return buf.getLong(viewCol + row * 8);
+        }
+
+        Item copy(int row) {
+            int id = id(row);
+            int type = buf.getInt(typeCol + row * 4);
+            String title = string(buf.getInt(titleCol + row * 4));
+            int authorRef = buf.getInt(authorCol + row * 4);
+            if (authorRef >= 0) {
+                return new Book(id, title, string(authorRef), type, buf.getInt(pageCol + row * 4), buf.getInt(yearCol + row * 4));
+            }
+            return new Item(id, title, type);
+        }
+
+        Item item(int row) {
+            int id = id(row);
+            int type = buf.getInt(typeCol + row * 4);
+            int titleRef = buf.getInt(titleCol + row * 4);
+            int authorRef = buf.getInt(authorCol + row * 4);
+            if (authorRef >= 0) {
+                return new MappedBook(this, id, type, titleRef, authorRef, buf.getInt(pageCol + row * 4), buf.getInt(yearCol + row * 4));
+            }
+            return new MappedItem(this, id, type, titleRef);
+        }
+
+        String string(int ref) {
+            String value = decoded[ref];
+            if (value == null) {
+                int start = buf.getInt(stringIndexPos + ref * 4);
+                int end = buf.getInt(stringIndexPos + ref * 4 + 4);
+                byte[] bytes = new byte[end - start];
+                buf.get(stringDataPos + start, bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded[ref] = value;
+            }
+            return value;
+        }
+    }
+
+    //an item whose title stays in the snapshot until it is first read or changed
+    private static final class MappedItem extends Item {
+        private final Columns columns;
+        private volatile int titleRef; //-1 once the title is in the field
+
+        MappedItem(Columns columns, int id, int type, int titleRef) {
+            super(id, null, type);
+            this.columns = columns;
+            this.titleRef = titleRef;
+        }
+
+        @Override
+        public String getTitle() {
+            if (titleRef >= 0) {
+                synchronized (this) {
+                    if (titleRef >= 0) {
+                        super.assignTitle(columns.string(titleRef));
+                        titleRef = -1;
+                    }
+                }
+            }
+            return super.getTitle();
+        }
+
+        @Override
+        synchronized void assignTitle(String title) {
+            titleRef = -1;
+            super.assignTitle(title);
+        }
+    }
+
+    //the same for a book's title and author
+    private static final class MappedBook extends Book {
+        private final Columns columns;
+        private volatile int titleRef;
+        private volatile int authorRef;
+
+        MappedBook(Columns columns, int id, int type, int titleRef, int authorRef, int pageCount, int year) {
+            super(id, null, null, type, pageCount, year);
+            this.columns = columns;
+            this.titleRef = titleRef;
+            this.authorRef = authorRef;
+        }
+
+        @Override
+        public String getTitle() {
+            if (titleRef >= 0) {
+                synchronized (this) {
+                    if (titleRef >= 0) {
+                        super.assignTitle(columns.string(titleRef));
+                        titleRef = -1;
+                    }
+                }
+            }
+            return super.getTitle();
+        }
+
+        @Override
+        synchronized void assignTitle(String title) {
+            titleRef = -1;
+            super.assignTitle(title);
+        }
+
+        @Override
+        public String getAuthor() {
+            if (authorRef >= 0) {
+                synchronized (this) {
+                    if (authorRef >= 0) {
+                        super.assignAuthor(columns.string(authorRef));
+                        authorRef = -1;
+                    }
+                }
+            }
+            return super.getAuthor();
+        }
+
+        @Override
+        synchronized void assignAuthor(String author) {
+            authorRef = -1;
+            super.assignAuthor(author);
+        }
+    }
+
+    //read whole, since record by record there is no way to reserve the ids first
+    private static void readVersion1(Path file, ChunkSink sink) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            in.readInt();
+            in.readInt();
+            int count = in.readInt();
+            List<Item> items = new ArrayList<>(count);
+            long[] views = new long[count];
+            for (int i = 0; i < count; i++) {
+                items.add(ItemJournal.readItem(in));
+                views[i] = in.readLong();
+            }
+            sink.accept(items, views, 1.0);
+        }
+    }
+
+    private static class StringTable {
+        int count;
+        int[] offsets = new int[1024];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        int ref(Map<String, Integer> refs, String value) {
+            Integer ref = refs.get(value);
+            if (ref != null) {
+                return ref;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            data.write(bytes, 0, bytes.length);
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count + 1] = data.size();
+            refs.put(value, count);
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//catalogue totals: items, books, views and pages overall, books per year,
+//decade and page range, views per decade, books and views per author. Every
+//field is a sum, so the stats of two disjoint sets of items merge by adding
+//them and a set is taken back out by merging it with sign -1. That is what
+//lets CatalogueAnalytics compute parts in parallel and refresh only the
+//parts that changed. Not thread-safe
+class CatalogueStats {
+    static final int PAGE_BUCKET = 50;
+    //years and page counts are typed in by hand, clamping keeps the tallies small
+    private static final int MIN_YEAR = -9999;
+    private static final int MAX_YEAR = 9999;
+    private static final int MAX_PAGES = 10000;
+
+    private long items;
+    private long books;
+    private long views;
+    private long pageSum;
+    private final Tally years = new Tally();
+    private final Tally pages = new Tally();
+    private final Tally decadeBooks = new Tally();
+    private final Tally decadeViews = new Tally();
+    //authors are numbered as they are first seen and their books and views
+    //kept in columns by that number, so ranking them is a scan over two
+    //arrays instead of a walk over a map's scattered entries
+    private final Map<String, Integer> authorNumbers = new HashMap<>();
+    private String[] authorNames = new String[16];
+    private long[] authorBooks = new long[16];
+    private long[] authorViews = new long[16];
+    //authors with any books or views left
+    private int liveAuthors;
+
+    //views are the item's all-time count
+    public void add(Item item, long itemViews) {
+        items++;
+        if (!(item instanceof Book)) {
+            return;
+        }
+        Book book = (Book) item;
+        int year = Math.max(MIN_YEAR, Math.min(MAX_YEAR, book.getYear()));
+        int decade = Math.floorDiv(year, 10);
+        books++;
+        views += itemViews;
+        pageSum += book.getPageCount();
+        years.add(year, 1);
+        pages.add(Math.max(0, Math.min(MAX_PAGES, book.getPageCount())) / PAGE_BUCKET, 1);
+        decadeBooks.add(decade, 1);
+        decadeViews.add(decade, itemViews);
+        addAuthor(book.getAuthor(), 1, itemViews);
+    }
+
+    //adds other times sign, sign being 1 or -1
+    public void merge(CatalogueStats other, int sign) {
+        items += sign * other.items;
+        books += sign * other.books;
+        views += sign * other.views;
+        pageSum += sign * other.pageSum;
+        years.merge(other.years, sign);
+        pages.merge(other.pages, sign);
+        decadeBooks.merge(other.decadeBooks, sign);
+        decadeViews.merge(other.decadeViews, sign);
+        for (int i = 0; i < other.authorNumbers.size(); i++) {
+            if (other.authorBooks[i] != 0 || other.authorViews[i] != 0) {
+                addAuthor(other.authorNames[i], sign * other.authorBooks[i], sign * other.authorViews[i]);
+            }
+        }
+    }
+
+    private void addAuthor(String author, long books, long views) {
+        Integer number = authorNumbers.get(author);
+        if (number == null) {
+            number = authorNumbers.size();
+            if (number == authorNames.length) {
+                authorNames = Arrays.copyOf(authorNames, number * 2);
+                authorBooks = Arrays.copyOf(authorBooks, number * 2);
+                authorViews = Arrays.copyOf(authorViews, number * 2);
+            }
+            authorNames[number] = author;
+            authorNumbers.put(author, number);
+        }
+        boolean wasLive = authorBooks[number] != 0 || authorViews[number] != 0;
+        authorBooks[number] += books;
+        authorViews[number] += views;
+        boolean live = authorBooks[number] != 0 || authorViews[number] != 0;
+        if (live != wasLive) {
+            liveAuthors += live ? 1 : -1;
+        }
+    }
+
+    public CatalogueStats copy() {
+        CatalogueStats copy = new CatalogueStats();
+        copy.merge(this, 1);
+        return copy;
+    }
+
+    //what the GUI shows: the totals plus the top authors both ways. Copies
+    //the small tallies and scans the authors once, never copies them
+    public Report report(int topAuthors) {
+        Report report = new Report();
+        report.items = items;
+        report.books = books;
+        report.views = views;
+        report.averagePageCount = books == 0 ? 0 : (double) pageSum / books;
+        report.authorCount = liveAuthors;
+        report.years.merge(years, 1);
+        report.pages.merge(pages, 1);
+        report.decadeBooks.merge(decadeBooks, 1);
+        report.decadeViews.merge(decadeViews, 1);
+        report.topByBooks = topAuthors(topAuthors, false);
+        report.topByViews = topAuthors(topAuthors, true);
+        return report;
+    }
+
+    private List<AuthorTotal> topAuthors(int n, boolean byViews) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        long[] column = byViews ? authorViews : authorBooks;
+        Comparator<AuthorTotal> order = Comparator.comparingLong(byViews ? AuthorTotal::getViews : AuthorTotal::getBooks);
+        PriorityQueue<AuthorTotal> best = new PriorityQueue<>(order);
+        long threshold = Long.MIN_VALUE;
+        for (int i = 0; i < authorNumbers.size(); i++) {
+            if (authorBooks[i] == 0 && authorViews[i] == 0) {
+                continue;
+            }
+            //most authors lose against the smallest kept one without allocating
+            if (best.size() < n || column[i] > threshold) {
+                best.add(new AuthorTotal(authorNames[i], authorBooks[i], authorViews[i]));
+                if (best.size() > n) {
+                    best.poll();
+                }
+                if (best.size() == n) {
+                    threshold = byViews ? best.peek().getViews() : best.peek().getBooks();
+                }
+            }
+        }
+        List<AuthorTotal> top = new ArrayList<>(best);
+        top.sort(order.reversed());
+        return top;
+    }
+
+    //a read-only copy of the totals at one refresh, safe to hand to another thread
+    static class Report {
+        private long items;
+        private long books;
+        private long views;
+        private double averagePageCount;
+        private int authorCount;
+        private final Tally years = new Tally();
+        private final Tally pages = new Tally();
+        private final Tally decadeBooks = new Tally();
+        private final Tally decadeViews = new Tally();
+        private List<AuthorTotal> topByBooks;
+        private List<AuthorTotal> topByViews;
+
+        public long getItemCount() {
+            return items;
+        }
+
+        public long getBookCount() {
+            return books;
+        }
+
+        public long getViewCount() {
+            return views;
+        }
+
+        public double getAveragePageCount() {
+            return averagePageCount;
+        }
+
+        public int getAuthorCount() {
+            return authorCount;
+        }
+
+        //books per year, in year order
+        public void forEachYear(Tally.Visitor visitor) {
+            years.forEach(visitor);
+        }
+
+        //books per page range, keyed by the first page count in the range
+        public void forEachPageRange(Tally.Visitor visitor) {
+            pages.forEach((bucket, count) -> visitor.visit(bucket * PAGE_BUCKET, count));
+        }
+
+        //books per decade, keyed by the decade's first year
+        public void forEachDecade(Tally.Visitor visitor) {
+            decadeBooks.forEach((decade, count) -> visitor.visit(decade * 10, count));
+        }
+
+        public long getDecadeViews(int decade) {
+            return decadeViews.get(Math.floorDiv(decade, 10));
+        }
+
+        //most books first
+        public List<AuthorTotal> getTopAuthorsByBooks() {
+            return topByBooks;
+        }
+
+        //most views first
+        public List<AuthorTotal> getTopAuthorsByViews() {
+            return topByViews;
+        }
+    }
+
+    static class AuthorTotal {
+        private final String author;
+        private final long books;
+        private final long views;
+
+        AuthorTotal(String author, long books, long views) {
+            this.author = author;
+            this.books = books;
+            this.views = views;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public long getBooks() {
+            return books;
+        }
+
+        public long getViews() {
+            return views;
+        }
+    }
+
+    //counts over a dense run of int keys, grown to cover whatever keys are added
+    static final class Tally {
+        private int base;
+        private long[] counts = new long[0];
+
+        void add(int key, long amount) {
+            if (counts.length == 0) {
+                base = key;
+                counts = new long[8];
+            } else if (key < base || key >= base + counts.length) {
+                int low = Math.min(base, key);
+                int high = Math.max(base + counts.length, key + 1);
+                long[] grown = new long[Math.max(high - low, counts.length * 2)];
+                //the spare room goes on the side that grew
+                if (key < base) {
+                    low = high - grown.length;
+                }
+                System.arraycopy(counts, 0, grown, base - low, counts.length);
+                counts = grown;
+                base = low;
+            }
+            counts[key - base] += amount;
+        }
+
+        long get(int key) {
+            return key >= base && key < base + counts.length ? counts[key - base] : 0;
+        }
+
+        void merge(Tally other, int sign) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.base + i, sign * other.counts[i]);
+                }
+            }
+        }
+
+        //non-zero keys in ascending order
+        void forEach(Visitor visitor) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    visitor.visit(base + i, counts[i]);
+                }
+            }
+        }
+
+        interface Visitor {
+            void visit(int key, long count);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+//item store that keeps each field in its own primitive column instead of one
+//object per item. Titles and authors go into a reference-counted string pool,
+//so an author shared by many books is stored once. Callers get small view
+//objects that read and write the columns; they are created on demand and
+//are not kept, so two lookups of the same id may return different objects
+class ColumnarItemStore implements ItemStore {
+    private static final int NO_AUTHOR = -1;
+    private static final int FREE = -2;
+
+    //reads are optimistic and only take the read lock when a write got in
+    //between, so a lookup never queues behind a writer unless it raced one
+    private final StampedLock lock;
+    private final IntIntMap slotsById;
+    private final StringPool strings;
+    private Library library;
+    private int[] ids;
+    private int[] types;
+    private int[] titleRefs;
+    private int[] authorRefs; //NO_AUTHOR for plain items, FREE for unused slots
+    private int[] pageCounts;
+    private int[] years;
+    private int slotCount;
+    private int[] freeSlots;
+    private int freeCount;
+
+    public ColumnarItemStore() {
+        lock = new StampedLock();
+        slotsById = new IntIntMap(1024);
+        strings = new StringPool();
+        ids = new int[1024];
+        types = new int[1024];
+        titleRefs = new int[1024];
+        authorRefs = new int[1024];
+        pageCounts = new int[1024];
+        years = new int[1024];
+        freeSlots = new int[16];
+    }
+
+    @Override
+    public void attach(Library library) {
+        this.library = library;
+    }
+
+    @Override
+    public Item add(Item item) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+            ids[slot] = item.getId();
+            types[slot] = item.getType();
+            titleRefs[slot] = strings.acquire(item.getTitle());
+            if (item instanceof Book) {
+                Book book = (Book) item;
+                authorRefs[slot] = strings.acquire(book.getAuthor());
+                pageCounts[slot] = book.getPageCount();
+                years[slot] = book.getYear();
+            } else {
+                authorRefs[slot] = NO_AUTHOR;
+            }
+            slotsById.put(item.getId(), slot);
+            return view(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Item get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            //the view is only built once the fields it is built from are validated
+            int slot = slotsById.get(id, -1);
+            int type = slot >= 0 ? types[slot] : 0;
+            boolean book = slot >= 0 && authorRefs[slot] != NO_AUTHOR;
+            if (lock.validate(stamp)) {
+                return slot >= 0 ? view(id, type, book) : null;
+            }
+        } catch (RuntimeException e) {
+            //read half-written columns, the locked read below decides
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            return slot >= 0 ? view(slot) : null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            boolean found = slotsById.containsKey(id);
+            if (lock.validate(stamp)) {
+                return found;
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            return slotsById.containsKey(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot < 0) {
+                return;
+            }
+            slotsById.remove(id);
+            strings.release(titleRefs[slot]);
+            if (authorRefs[slot] >= 0) {
+                strings.release(authorRefs[slot]);
+            }
+            authorRefs[slot] = FREE;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = slotsById.size();
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return slotsById.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<Item> items() {
+        long stamp = lock.readLock();
+        try {
+            //ids and slots are packed into one long so a primitive sort orders by id
+            long[] order = new long[slotCount - freeCount];
+            int count = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (authorRefs[slot] != FREE) {
+                    order[count++] = ((long) ids[slot] << 32) | slot;
+                }
+            }
+            Arrays.sort(order, 0, count);
+            List<Item> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(view((int) order[i]));
+            }
+            return items;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Item view(int slot) {
+        return view(ids[slot], types[slot], authorRefs[slot] != NO_AUTHOR);
+    }
+
+    private Item view(int id, int type, boolean book) {
+        Item item = book ? new StoredBook(id, type) : new StoredItem(id, type);
+        item.library = library;
+        return item;
+    }
+
+    private int nextSlot() {
+        if (slotCount == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            titleRefs = Arrays.copyOf(titleRefs, capacity);
+            authorRefs = Arrays.copyOf(authorRefs, capacity);
+            pageCounts = Arrays.copyOf(pageCounts, capacity);
+            years = Arrays.copyOf(years, capacity);
+        }
+        return slotCount++;
+    }
+
+    //field access for the views, which look up their slot by id each time so a
+    //view of a removed item reads as empty rather than another item's data
+    private String readString(int id, boolean author) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            String value = readStringUnlocked(id, author);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            return readStringUnlocked(id, author);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private String readStringUnlocked(int id, boolean author) {
+        int slot = slotsById.get(id, -1);
+        if (slot < 0) {
+            return null;
+        }
+        return strings.get(author ? authorRefs[slot] : titleRefs[slot]);
+    }
+
+    private void writeString(int id, boolean author, String value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot < 0) {
+                return;
+            }
+            int[] column = author ? authorRefs : titleRefs;
+            int ref = strings.acquire(value);
+            strings.release(column[slot]);
+            column[slot] = ref;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int readInt(int id, boolean year) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int value = readIntUnlocked(id, year);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            return readIntUnlocked(id, year);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int readIntUnlocked(int id, boolean year) {
+        int slot = slotsById.get(id, -1);
+        if (slot < 0) {
+            return 0;
+        }
+        return year ? years[slot] : pageCounts[slot];
+    }
+
+    private void writeInt(int id, boolean year, int value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot >= 0) {
+                (year ? years : pageCounts)[slot] = value;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private class StoredItem extends Item {
+        StoredItem(int id, int type) {
+            super(id, null, type);
+        }
+
+        @Override
+        public String getTitle() {
+            return readString(id, false);
+        }
+
+        @Override
+        void assignTitle(String title) {
+            writeString(id, false, title);
+        }
+    }
+
+    private class StoredBook extends Book {
+        StoredBook(int id, int type) {
+            super(id, null, null, type, 0, 0);
+        }
+
+        @Override
+        public String getTitle() {
+            return readString(id, false);
+        }
+
+        @Override
+        void assignTitle(String title) {
+            writeString(id, false, title);
+        }
+
+        @Override
+        public String getAuthor() {
+            return readString(id, true);
+        }
+
+        @Override
+        void assignAuthor(String author) {
+            writeString(id, true, author);
+        }
+
+        @Override
+        public int getPageCount() {
+            return readInt(id, false);
+        }
+
+        @Override
+        void assignPageCount(int pageCount) {
+            writeInt(id, false, pageCount);
+        }
+
+        @Override
+        public int getYear() {
+            return readInt(id, true);
+        }
+
+        @Override
+        void assignYear(int year) {
+            writeInt(id, true, year);
+        }
+    }
+
+    //strings by reference number, each distinct value stored once and its
+    //number recycled when the last column entry using it goes away
+    private static class StringPool {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private String[] values = new String[1024];
+        private int[] useCounts = new int[1024];
+        private int count;
+        private int[] freeRefs = new int[16];
+        private int freeCount;
+
+        String get(int ref) {
+            return values[ref];
+        }
+
+        int acquire(String value) {
+            Integer ref = refs.get(value);
+            if (ref != null) {
+                useCounts[ref]++;
+                return ref;
+            }
+            int newRef;
+            if (freeCount > 0) {
+                newRef = freeRefs[--freeCount];
+            } else {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                    useCounts = Arrays.copyOf(useCounts, count * 2);
+                }
+                newRef = count++;
+            }
+            values[newRef] = value;
+            useCounts[newRef] = 1;
+            refs.put(value, newRef);
+            return newRef;
+        }
+
+        void release(int ref) {
+            if (--useCounts[ref] == 0) {
+                refs.remove(values[ref]);
+                values[ref] = null;
+                if (freeCount == freeRefs.length) {
+                    freeRefs = Arrays.copyOf(freeRefs, freeCount * 2);
+                }
+                freeRefs[freeCount++] = ref;
+            }
+        }
+    }
+}
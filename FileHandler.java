@@ -0,0 +1,72 @@
+package test;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+class FileHandler {
+    public List<Item> loadItemsFromFile(String filename) {
+        long start = LibraryMetrics.LOAD_ITEMS.start();
+        try {
+            try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                return new ItemFileParser(channel).parse();
+            } catch (IOException e) {
+                System.err.println("Error loading items from file: " + e.getMessage());
+            }
+            return new ArrayList<>();
+        } finally {
+            LibraryMetrics.LOAD_ITEMS.record(start);
+        }
+    }
+
+    //hands the items to chunks one parsed range (a few MB of file) at a time,
+    //with the fraction of the file read so far; returns how many were loaded
+    public int loadItemsFromFile(String filename, BiConsumer<List<Item>, Double> chunks) {
+        long start = LibraryMetrics.LOAD_ITEM_CHUNKS.start();
+        try {
+            try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                return new ItemFileParser(channel).parse(chunks);
+            } catch (IOException e) {
+                System.err.println("Error loading items from file: " + e.getMessage());
+            }
+            return 0;
+        } finally {
+            LibraryMetrics.LOAD_ITEM_CHUNKS.record(start);
+        }
+    }
+
+    public void saveItemsToFile(List<Item> items, String filename) {
+        try {
+            writeItemsToFile(items, filename);
+        } catch (IOException e) {
+            System.err.println("Error saving items to file: " + e.getMessage());
+        }
+    }
+
+    //the same for callers that must not go on after a failed write
+    public void writeItemsToFile(List<Item> items, String filename) throws IOException {
+        long start = LibraryMetrics.SAVE_ITEMS.start();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            for (Item item : items) {
+                String line;
+                if (item instanceof Book) {
+                    Book book = (Book) item;
+                    line = book.getId() + ", " + book.getTitle() + ", " + book.getAuthor() + ", "
+                            + book.getPageCount() + ", " + book.getYear() + ", " + book.getType();
+                } else {
+                    line = item.getId() + ", " + item.getTitle() + ", " + item.getType();
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        } finally {
+            LibraryMetrics.SAVE_ITEMS.record(start);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//keeps the Item objects as they were added, keyed by id without boxing
+class HeapItemStore implements ItemStore {
+    private final IntObjectMap<Item> items;
+
+    public HeapItemStore() {
+        items = new IntObjectMap<>();
+    }
+
+    @Override
+    public void attach(Library library) {
+    }
+
+    @Override
+    public Item add(Item item) {
+        items.put(item.getId(), item);
+        return item;
+    }
+
+    @Override
+    public Item get(int id) {
+        return items.get(id);
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return items.containsKey(id);
+    }
+
+    @Override
+    public void remove(int id) {
+        items.remove(id);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public List<Item> items() {
+        //the map has no order, so sort (id, position) pairs packed into longs
+        List<Item> found = new ArrayList<>(items.size());
+        items.forEach((id, item) -> found.add(item));
+        long[] order = new long[found.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (long) found.get(i).getId() << 32 | i;
+        }
+        Arrays.sort(order);
+        List<Item> sorted = new ArrayList<>(order.length);
+        for (long entry : order) {
+            sorted.add(found.get((int) entry));
+        }
+        return sorted;
+    }
+}
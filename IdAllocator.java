@@ -0,0 +1,85 @@
+package test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//hands out item ids. Once attached to a file, ids are reserved BLOCK at a
+//time and the end of the reserved range is on disk before any id in it is
+//handed out. After a restart allocation resumes past every id that may have
+//been used, including ids of deleted items and of changes the journal never
+//got to write, so an id is never reused and can serve as a stable key.
+//Without a file ids are only unique within the process
+final class IdAllocator {
+    static final int BLOCK = 4096;
+
+    private static final AtomicInteger next = new AtomicInteger(1);
+    //highest id that may be handed out without writing a new reservation
+    private static volatile int reservedThrough = Integer.MAX_VALUE;
+    private static Path file; //guarded by IdAllocator.class
+
+    private IdAllocator() {
+    }
+
+    //throws UncheckedIOException if the reservation cannot be written
+    static int next() {
+        int id = next.getAndIncrement();
+        if (id > reservedThrough) {
+            reserve(id);
+        }
+        return id;
+    }
+
+    //for ids restored from storage: allocation moves past id. The id is
+    //already stored, so there is nothing to write
+    static void skipThrough(int id) {
+        if (next.get() <= id) {
+            next.accumulateAndGet(id + 1, Math::max);
+        }
+    }
+
+    //resumes from the reservation stored in path and keeps it there from now on
+    static synchronized void persistTo(Path path) throws IOException {
+        if (path.equals(file)) {
+            return;
+        }
+        if (Files.exists(path)) {
+            String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+            try {
+                skipThrough(Integer.parseInt(text));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt id reservation in " + path + ": " + text);
+            }
+        }
+        file = path;
+        //the next id handed out writes the first reservation
+        reservedThrough = next.get() - 1;
+    }
+
+    private static synchronized void reserve(int id) {
+        if (id <= reservedThrough) {
+            return;
+        }
+        int through = Math.max(id, next.get() - 1) + BLOCK;
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, (through + "\n").getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //ids past the last reservation could repeat after a restart, so none
+            //are handed out until a reservation is written; the next call retries
+            System.err.println("Error reserving item ids: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+        reservedThrough = through;
+    }
+}
@@ -0,0 +1,135 @@
+package test;
+
+import java.util.Arrays;
+
+//open-addressing int -> int map with linear probing and no boxing. Removal
+//shifts the following run back instead of leaving tombstones. Not thread-safe;
+//a lookup racing a writer may answer wrongly or throw, but never loops
+//forever, so optimistic readers (see ColumnarItemStore) can validate and retry
+class IntIntMap {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    //returns missing when key is absent
+    public int get(int key, int missing) {
+        int[] k = keys;
+        int m = mask;
+        for (int slot = hash(key) & m, probes = 0; probes <= m; slot = (slot + 1) & m, probes++) {
+            if (k[slot] == key) {
+                return values[slot];
+            }
+            if (k[slot] == EMPTY) {
+                return missing;
+            }
+        }
+        return missing;
+    }
+
+    public boolean containsKey(int key) {
+        int[] k = keys;
+        int m = mask;
+        for (int slot = hash(key) & m, probes = 0; probes <= m; slot = (slot + 1) & m, probes++) {
+            if (k[slot] == key) {
+                return true;
+            }
+            if (k[slot] == EMPTY) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    public void put(int key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key not supported: " + key);
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    public void remove(int key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        //pull back any entry in the run that would become unreachable
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //keeps the current capacity, so a map that is cleared and refilled stops allocating
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    interface Visitor {
+        void visit(int key, int value);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
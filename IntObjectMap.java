@@ -0,0 +1,244 @@
+package test;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+//thread-safe int -> object map with open addressing and no boxed keys. Ids are
+//spread over segments that each own a linear-probing table and a StampedLock.
+//get is an optimistic read validated against the stamp, so lookups normally
+//take no lock and never wait for writers on other segments. Writers lock
+//their segment only. Removal shifts the following run back like IntIntMap
+class IntObjectMap<V> {
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int SEGMENTS = 32;
+
+    private final Segment[] segments;
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Segment extends StampedLock {
+        //replaced whole on resize, so a reader always probes one consistent array pair
+        Table table;
+        volatile int size;
+
+        Segment(int capacity) {
+            table = new Table(capacity);
+        }
+
+        //only under the lock, or optimistically where the caller validates
+        Object find(Table t, int key) {
+            int mask = t.keys.length - 1;
+            int slot = hash(key) & mask;
+            //bounded, so a probe racing a writer can not spin on a torn table
+            for (int i = 0; i <= mask; i++, slot = (slot + 1) & mask) {
+                int k = t.keys[slot];
+                if (k == key) {
+                    return t.values[slot];
+                }
+                if (k == EMPTY) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        Object put(int key, Object value, boolean onlyIfAbsent) {
+            if ((size + 1) * 4 > table.keys.length * 3) {
+                resize(table.keys.length * 2);
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int slot = hash(key) & mask;
+            while (t.keys[slot] != EMPTY && t.keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            Object old = t.values[slot];
+            if (t.keys[slot] == EMPTY) {
+                t.values[slot] = value;
+                t.keys[slot] = key;
+                size++;
+            } else if (!onlyIfAbsent) {
+                t.values[slot] = value;
+            }
+            return old;
+        }
+
+        Object remove(int key) {
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int slot = hash(key) & mask;
+            while (t.keys[slot] != key) {
+                if (t.keys[slot] == EMPTY) {
+                    return null;
+                }
+                slot = (slot + 1) & mask;
+            }
+            Object old = t.values[slot];
+            int gap = slot;
+            for (int next = (gap + 1) & mask; t.keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = hash(t.keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    t.keys[gap] = t.keys[next];
+                    t.values[gap] = t.values[next];
+                    gap = next;
+                }
+            }
+            t.keys[gap] = EMPTY;
+            t.values[gap] = null;
+            size--;
+            return old;
+        }
+
+        void resize(int capacity) {
+            Table old = table;
+            Table t = new Table(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < old.keys.length; i++) {
+                if (old.keys[i] != EMPTY) {
+                    int slot = hash(old.keys[i]) & mask;
+                    while (t.keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    t.keys[slot] = old.keys[i];
+                    t.values[slot] = old.values[i];
+                }
+            }
+            table = t;
+        }
+    }
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int perSegment = Math.max(4, expectedSize / SEGMENTS);
+        int capacity = Integer.highestOneBit(Math.max(4, perSegment * 2 - 1)) << 1;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Segment segment = segmentFor(key);
+        long stamp = segment.tryOptimisticRead();
+        if (stamp != 0) {
+            Object value = segment.find(segment.table, key);
+            if (segment.validate(stamp)) {
+                return (V) value;
+            }
+        }
+        stamp = segment.readLock();
+        try {
+            return (V) segment.find(segment.table, key);
+        } finally {
+            segment.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    //returns the previous value, or null
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        return (V) write(key, value, false);
+    }
+
+    //returns the value already stored, or null when value was added
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(int key, V value) {
+        return (V) write(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        Segment segment = segmentFor(key);
+        long stamp = segment.writeLock();
+        try {
+            return (V) segment.remove(key);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    //sums the segments without locking them, exact only when no writer is running
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    //visits every entry; each segment is copied under its read lock first, so
+    //the visitor may call back into the map
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (Segment segment : segments) {
+            int[] keys;
+            Object[] values;
+            long stamp = segment.readLock();
+            try {
+                Table t = segment.table;
+                keys = new int[segment.size];
+                values = new Object[keys.length];
+                int n = 0;
+                for (int i = 0; i < t.keys.length; i++) {
+                    if (t.keys[i] != EMPTY) {
+                        keys[n] = t.keys[i];
+                        values[n++] = t.values[i];
+                    }
+                }
+            } finally {
+                segment.unlockRead(stamp);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private Object write(int key, Object value, boolean onlyIfAbsent) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key not supported: " + key);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for key " + key);
+        }
+        Segment segment = segmentFor(key);
+        long stamp = segment.writeLock();
+        try {
+            return segment.put(key, value, onlyIfAbsent);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    private Segment segmentFor(int key) {
+        //the high hash bits pick the segment, the low ones the slot inside it
+        return segments[hash(key) >>> 27];
+    }
+
+    interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
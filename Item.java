@@ -0,0 +1,37 @@
+package test;
+
+class Item {
+    protected int id;
+    protected volatile String title;
+    protected int type;
+    volatile Library library; //set while the item is in a library
+
+    public Item(String title, int type) {
+        this(IdAllocator.next(), title, type);
+    }
+
+    //used when restoring stored items, keeps their id and moves allocation past it
+    Item(int id, String title, int type) {
+        this.id = id;
+        this.title = title;
+        this.type = type;
+        IdAllocator.skipThrough(id);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    //how Library stores a new title; items backed by a store write it there
+    void assignTitle(String title) {
+        this.title = title;
+    }
+}
@@ -0,0 +1,357 @@
+package test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+//parses an items file by splitting it into byte ranges and scanning each range
+//on the fork-join pool. A line belongs to the range its first byte falls in,
+//so ranges only need to peek one byte back and read past their end to finish
+//the last line. Results are merged in file order. Items keep the id stored on
+//their line; a line whose id is not positive or was already used gets a new one
+class ItemFileParser {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int READ_AHEAD = 8 * 1024;
+    //streaming parse keeps this many ranges per pool thread in flight
+    private static final int RANGES_PER_THREAD = 2;
+
+    private final FileChannel channel;
+    private final long size;
+    //ids handed out so far, only touched by the thread building items
+    private final IntIntMap usedIds;
+    //lines that got a new id because theirs was missing or taken
+    private int renumbered;
+
+    public ItemFileParser(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.usedIds = new IntIntMap(1024);
+    }
+
+    public List<Item> parse() throws IOException {
+        return parse(0);
+    }
+
+    //parses only the lines from start on, for a file that was appended to.
+    //start must be where a line begins
+    public List<Item> parse(long start) throws IOException {
+        List<Chunk> chunks;
+        try {
+            chunks = ForkJoinPool.commonPool().invoke(new RangeTask(start, size));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int total = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.count;
+        }
+        //items are built on one thread so ids follow file order
+        List<Item> items = new ArrayList<>(total);
+        //every stored id is known before a line without one is given a new id
+        for (Chunk chunk : chunks) {
+            skipStoredIds(chunk);
+        }
+        for (Chunk chunk : chunks) {
+            addItems(chunk, items);
+        }
+        return items;
+    }
+
+    //streams the file instead: ranges are parsed on the pool a few at a time,
+    //and each one's items go to sink in file order as soon as it and the ranges
+    //before it are done, with the fraction of the file handed over so far.
+    //At most RANGES_PER_THREAD ranges per pool thread are in flight, so only
+    //that much of the file is held in memory however large it is
+    public int parse(BiConsumer<List<Item>, Double> sink) throws IOException {
+        int rangeCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        int window = RANGES_PER_THREAD * ForkJoinPool.getCommonPoolParallelism();
+        List<ForkJoinTask<Chunk>> ranges = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount && i < window; i++) {
+            ranges.add(submitRange(i));
+        }
+        int total = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            Chunk chunk;
+            try {
+                chunk = ranges.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while parsing");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error parsing range " + i, e.getCause());
+            }
+            //the parsed range is let go as soon as it is handed over
+            ranges.set(i, null);
+            if (i + window < rangeCount) {
+                ranges.add(submitRange(i + window));
+            }
+            List<Item> items = new ArrayList<>(chunk.count);
+            //ranges further on are not parsed yet, so a new id given out here can
+            //still meet a stored one later; that later item then gets a new id
+            skipStoredIds(chunk);
+            addItems(chunk, items);
+            total += items.size();
+            sink.accept(items, (double) Math.min(size, (i + 1L) * CHUNK_SIZE) / size);
+        }
+        return total;
+    }
+
+    //for parse(start): an id a line before start already holds, so a later
+    //line repeating it gets a new id as it would in a full parse
+    public void markUsed(int id) {
+        usedIds.put(id, 1);
+    }
+
+    //how many of the lines parsed so far were given a new id. The id lives
+    //only in the items returned unless the caller writes them back
+    public int getRenumbered() {
+        return renumbered;
+    }
+
+    private ForkJoinTask<Chunk> submitRange(int index) {
+        long from = (long) index * CHUNK_SIZE;
+        long to = Math.min(size, from + CHUNK_SIZE);
+        return ForkJoinPool.commonPool().submit(() -> parseRange(from, to));
+    }
+
+    private static void skipStoredIds(Chunk chunk) {
+        int max = 0;
+        for (int i = 0; i < chunk.count; i++) {
+            max = Math.max(max, chunk.ids[i]);
+        }
+        IdAllocator.skipThrough(max);
+    }
+
+    private void addItems(Chunk chunk, List<Item> items) throws IOException {
+        for (int i = 0; i < chunk.count; i++) {
+            int id = chunk.ids[i];
+            if (id <= 0 || usedIds.containsKey(id)) {
+                try {
+                    id = IdAllocator.next();
+                } catch (UncheckedIOException e) {
+                    //no id could be reserved for this line
+                    throw e.getCause();
+                }
+                renumbered++;
+            }
+            usedIds.put(id, 1);
+            if (chunk.authors[i] != null) {
+                items.add(new Book(id, chunk.titles[i], chunk.authors[i], chunk.types[i], chunk.pageCounts[i], chunk.years[i]));
+            } else {
+                items.add(new Item(id, chunk.titles[i], chunk.types[i]));
+            }
+        }
+    }
+
+    private class RangeTask extends RecursiveTask<List<Chunk>> {
+        private final long start;
+        private final long end;
+
+        RangeTask(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<Chunk> compute() {
+            if (end - start <= CHUNK_SIZE) {
+                List<Chunk> result = new ArrayList<>(1);
+                try {
+                    result.add(parseRange(start, end));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return result;
+            }
+            long middle = start + (end - start) / 2;
+            RangeTask left = new RangeTask(start, middle);
+            RangeTask right = new RangeTask(middle, end);
+            left.fork();
+            List<Chunk> result = right.compute();
+            List<Chunk> merged = left.join();
+            merged.addAll(result);
+            return merged;
+        }
+    }
+
+    private Chunk parseRange(long start, long end) throws IOException {
+        long from = start == 0 ? 0 : start - 1;
+        int rangeLength = (int) (end - from);
+        byte[] buf = read(from, rangeLength, rangeLength + READ_AHEAD);
+        int length = rangeLength;
+        //finish the last line, which may run past the end of the range
+        while (from + length < size && lastLineOpen(buf, length, rangeLength)) {
+            if (buf.length - length < READ_AHEAD) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            length += readInto(buf, from + length, length, Math.min(READ_AHEAD, (int) (size - from - length)));
+        }
+
+        int pos = 0;
+        if (start > 0) {
+            //the line running into this range belongs to the previous one
+            while (pos < length && buf[pos] != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+        Chunk chunk = new Chunk();
+        while (pos < rangeLength) {
+            int lineEnd = pos;
+            while (lineEnd < length && buf[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            parseLine(buf, pos, lineEnd, chunk);
+            pos = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    //"id, title, type" for items, "id, title, author, pageCount, year, type" for
+    //books, matching FileHandler.saveItemsToFile. Other lines are skipped
+    private static void parseLine(byte[] buf, int from, int to, Chunk chunk) {
+        int[] commas = chunk.commas;
+        int fields = 1;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == ',') {
+                if (fields > commas.length) {
+                    return;
+                }
+                commas[fields - 1] = i;
+                fields++;
+            }
+        }
+        int id = fields == 3 || fields == 6 ? parseInt(buf, from, commas[0]) : Integer.MIN_VALUE;
+        if (id == Integer.MIN_VALUE) {
+            return;
+        }
+        int type = parseInt(buf, commas[fields - 2] + 1, to);
+        if (type == Integer.MIN_VALUE) {
+            return;
+        }
+        String title = text(buf, commas[0] + 1, commas[1]);
+        if (fields == 3) {
+            chunk.add(id, title, null, type, 0, 0);
+            return;
+        }
+        int pageCount = parseInt(buf, commas[2] + 1, commas[3]);
+        int year = parseInt(buf, commas[3] + 1, commas[4]);
+        if (pageCount == Integer.MIN_VALUE || year == Integer.MIN_VALUE) {
+            return;
+        }
+        chunk.add(id, title, text(buf, commas[1] + 1, commas[2]), type, pageCount, year);
+    }
+
+    private static String text(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (buf[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    //returns Integer.MIN_VALUE when the field is not a plain decimal int
+    static int parseInt(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (buf[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        boolean negative = from < to && buf[from] == '-';
+        if (negative || (from < to && buf[from] == '+')) {
+            from++;
+        }
+        if (from == to || to - from > 10) {
+            return Integer.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE + 1 || value > Integer.MAX_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) value;
+    }
+
+    private static boolean lastLineOpen(byte[] buf, int length, int rangeLength) {
+        for (int i = length - 1; i >= rangeLength - 1 && i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] read(long position, int length, int capacity) throws IOException {
+        byte[] buf = new byte[capacity];
+        int read = readInto(buf, position, 0, length);
+        if (read < length) {
+            throw new IOException("Items file shrank while loading");
+        }
+        return buf;
+    }
+
+    private int readInto(byte[] buf, long position, int offset, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buf, offset, length);
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position() - offset);
+            if (read < 0) {
+                break;
+            }
+        }
+        return target.position() - offset;
+    }
+
+    //one range's parsed lines, kept in flat arrays until the ordered merge
+    private static class Chunk {
+        int[] ids = new int[64];
+        String[] titles = new String[64];
+        String[] authors = new String[64];
+        int[] types = new int[64];
+        int[] pageCounts = new int[64];
+        int[] years = new int[64];
+        int[] commas = new int[5];
+        int count;
+
+        void add(int id, String title, String author, int type, int pageCount, int year) {
+            if (count == titles.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                titles = Arrays.copyOf(titles, count * 2);
+                authors = Arrays.copyOf(authors, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+                pageCounts = Arrays.copyOf(pageCounts, count * 2);
+                years = Arrays.copyOf(years, count * 2);
+            }
+            ids[count] = id;
+            titles[count] = title;
+            authors[count] = author;
+            types[count] = type;
+            pageCounts[count] = pageCount;
+            years[count] = year;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+//keeps a Library in step with an items file that other instances share.
+//The file is remembered as it was last read or written (the base) together
+//with its size, modification time and CRC, which serve as its version. The
+//base is also kept in baseFile, so a restart can tell what changed on each
+//side since. When the file's version moves, it is read again and diffed
+//against the base by id, and only the items another instance changed are
+//applied, so edits made here in the meantime survive. A save first checks
+//the version under a lock file and merges whatever changed on disk before
+//writing, instead of overwriting it.
+//When both sides changed the same item the local change is kept and
+//reported; an edit wins over a delete, and an id both sides used for a new
+//item stays with the one on disk while the local item moves to a new id
+class ItemFileSync implements LibraryListener {
+    //saves wait this long after the last local change, so a burst writes once
+    private static final long SAVE_DELAY_MS = 2000;
+    //editors write in several steps; wait for the file to settle
+    private static final long SETTLE_MS = 200;
+    private static final Object IN_PROCESS = new Object();
+
+    private final Library library;
+    private final Path file;
+    private final Path lockFile;
+    private final Path baseFile;
+    //guarded by this
+    private IntObjectMap<Item> base;
+    private long baseSize = -1;
+    private long baseCrc;
+    private long baseMillis = -1;
+
+    private volatile boolean localChanges;
+    //changes made while applying the file are not local
+    private volatile Thread applyingThread;
+    private volatile boolean closed;
+    private WatchService watcher;
+    private Thread watchThread;
+    private ScheduledExecutorService saver;
+    private ScheduledFuture<?> pendingSave;
+
+    //baseFile belongs to this instance alone, like its journal
+    public ItemFileSync(Library library, Path file, Path baseFile) {
+        this.library = library;
+        this.file = file.toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.baseFile = baseFile.toAbsolutePath();
+        this.base = new IntObjectMap<>();
+    }
+
+    //merges the file and library, then follows both: changes on disk are
+    //applied as they happen and local ones are saved shortly after
+    public void start() throws IOException {
+        boolean exists = Files.exists(file);
+        locked(() -> {
+            loadBase();
+            if (Files.exists(file)) {
+                reloadLocked();
+            }
+            //the journal may have brought back changes that were never saved
+            if (!sameItems(library.getItems())) {
+                localChanges = true;
+            }
+        });
+        library.addLibraryListener(this);
+        saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "file-sync-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchThread = new Thread(this::watchLoop, "file-sync-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        if (!exists || localChanges) {
+            //the first save creates the file
+            markLocalChange();
+        }
+    }
+
+    //the file as this instance last synced it. Without baseFile (the first
+    //sync) the file's items the library also holds count as synced: every
+    //other item on either side is then kept, and where both hold an id the
+    //local version wins, so nothing the journal recovered is lost
+    private void loadBase() throws IOException {
+        boolean saved = Files.exists(baseFile);
+        Path source = saved ? baseFile : file;
+        if (!Files.exists(source)) {
+            return;
+        }
+        List<Item> items;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            items = new ItemFileParser(channel).parse();
+        }
+        for (Item item : items) {
+            if (saved || library.getItemById(item.getId()) != null) {
+                base.put(item.getId(), item);
+            }
+        }
+        if (saved) {
+            //baseFile is written the way the file is, so an unchanged file
+            //matches its size and CRC
+            baseSize = Files.size(baseFile);
+            baseCrc = crc(baseFile, baseSize, 0)[1];
+        }
+    }
+
+    //whether items are exactly the base
+    private boolean sameItems(List<Item> items) {
+        if (items.size() != base.size()) {
+            return false;
+        }
+        for (Item item : items) {
+            Item old = base.get(item.getId());
+            if (old == null || !sameContent(old, item)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //saves what is left and stops watching
+    public void close() {
+        closed = true;
+        library.removeLibraryListener(this);
+        if (saver != null) {
+            saver.shutdownNow();
+        }
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (localChanges) {
+                save();
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            try {
+                WatchKey key = watcher.take();
+                boolean ours = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    ours |= file.getFileName().equals(event.context()) || event.kind() == StandardWatchEventKinds.OVERFLOW;
+                }
+                key.reset();
+                if (!ours) {
+                    continue;
+                }
+                Thread.sleep(SETTLE_MS);
+                //events that came in while settling are covered by this reload
+                WatchKey more;
+                while ((more = watcher.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                reload();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Error reloading " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    //applies changes other instances made to the file, if any
+    public void reload() throws IOException {
+        locked(this::reloadLocked);
+    }
+
+    //merges the file's changes in if it moved on, then writes the library
+    //back when it has local changes. Other instances that save meanwhile wait
+    //for the lock, so no write is lost between the check and the move
+    public void save() throws IOException {
+        locked(() -> {
+            if (Files.exists(file)) {
+                reloadLocked();
+            }
+            if (localChanges) {
+                writeLocked();
+            }
+        });
+    }
+
+    //caller holds this and the lock file
+    private void writeLocked() throws IOException {
+        localChanges = false;
+        List<Item> items = library.snapshot().getItems();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            new FileHandler().writeItemsToFile(items, tempFile.toString());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            localChanges = true;
+            throw e;
+        }
+        IntObjectMap<Item> written = new IntObjectMap<>(items.size());
+        for (Item item : items) {
+            written.put(item.getId(), item);
+        }
+        base = written;
+        baseSize = Files.size(file);
+        baseMillis = Files.getLastModifiedTime(file).toMillis();
+        baseCrc = crc(file, baseSize, 0)[1];
+        saveBase();
+    }
+
+    //writes base to baseFile, in id order like the file itself
+    private void saveBase() throws IOException {
+        List<Item> items = new ArrayList<>(base.size());
+        base.forEach((id, item) -> items.add(item));
+        items.sort(Comparator.comparingInt(Item::getId));
+        Path tempFile = baseFile.resolveSibling(baseFile.getFileName() + ".tmp");
+        new FileHandler().writeItemsToFile(items, tempFile.toString());
+        Files.move(tempFile, baseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //runs action holding this and the lock file
+    private void locked(LockedAction action) throws IOException {
+        synchronized (this) {
+            //a FileLock belongs to the whole process, so instances in one
+            //process take turns here before asking for it. Closing the
+            //channel releases the lock
+            synchronized (IN_PROCESS) {
+                try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    lockChannel.lock();
+                    action.run();
+                }
+            }
+        }
+    }
+
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+
+    //caller holds this and the lock file. The file is only read for its CRC
+    //when its size or modification time moved. When it only grew and its old
+    //content is unchanged, only the appended lines are parsed
+    private void reloadLocked() throws IOException {
+        long size = Files.size(file);
+        long millis = Files.getLastModifiedTime(file).toMillis();
+        if (size == baseSize && millis == baseMillis) {
+            return;
+        }
+        long[] crc = crc(file, size, baseSize);
+        if (size == baseSize && crc[1] == baseCrc) {
+            //touched but not changed
+            baseMillis = millis;
+            return;
+        }
+        boolean appended = baseSize > 0 && size > baseSize && crc[0] == baseCrc;
+        List<Item> theirs;
+        int renumbered;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ItemFileParser parser = new ItemFileParser(channel);
+            if (appended) {
+                base.forEach((id, item) -> parser.markUsed(id));
+            }
+            theirs = parser.parse(appended ? baseSize : 0);
+            renumbered = parser.getRenumbered();
+        }
+        IntObjectMap<Item> next;
+        if (appended) {
+            next = new IntObjectMap<>(base.size() + theirs.size());
+            base.forEach(next::put);
+        } else {
+            next = new IntObjectMap<>(theirs.size());
+        }
+        for (Item item : theirs) {
+            next.put(item.getId(), item);
+        }
+        applyingThread = Thread.currentThread();
+        try {
+            apply(next, appended);
+        } finally {
+            applyingThread = null;
+        }
+        base = next;
+        baseSize = size;
+        baseCrc = crc[1];
+        baseMillis = millis;
+        if (renumbered > 0) {
+            //lines without a usable id were given one; it is written back now,
+            //or the next full read would give them new ids and add them again
+            writeLocked();
+        } else {
+            saveBase();
+        }
+    }
+
+    //three-way merge of the file (theirs) into the library (ours) against base
+    private void apply(IntObjectMap<Item> theirs, boolean appended) {
+        List<Item> added = new ArrayList<>();
+        int[] counts = new int[3];
+        theirs.forEach((id, item) -> {
+            Item old = base.get(id);
+            Item ours = library.getItemById(id);
+            if (old != null && sameContent(old, item)) {
+                return;
+            }
+            if (ours == null) {
+                //new there, or edited there while deleted here: keep theirs
+                added.add(copy(item, id));
+                counts[0]++;
+            } else if (sameContent(ours, item)) {
+                return;
+            } else if (old == null) {
+                //both sides added an item under this id: the file keeps it
+                Item moved = copy(ours, IdAllocator.next());
+                library.deleteItemById(id);
+                library.addItem(moved);
+                added.add(copy(item, id));
+                counts[0]++;
+                markLocalChange();
+                System.err.println("Item id " + id + " was also used in " + file + ", local item moved to id " + moved.getId());
+            } else if (sameContent(ours, old)) {
+                replace(ours, item);
+                counts[1]++;
+            } else {
+                markLocalChange();
+                System.err.println("Item id " + id + " changed here and in " + file + ", keeping the local change");
+            }
+        });
+        if (!appended) {
+            base.forEach((id, old) -> {
+                if (theirs.get(id) != null) {
+                    return;
+                }
+                Item ours = library.getItemById(id);
+                if (ours == null) {
+                    return;
+                }
+                if (sameContent(ours, old)) {
+                    library.deleteItemById(id);
+                    counts[2]++;
+                } else {
+                    markLocalChange();
+                    System.err.println("Item id " + id + " was deleted in " + file + " but changed here, keeping it");
+                }
+            });
+        }
+        library.addAll(added);
+        if (counts[0] + counts[1] + counts[2] > 0) {
+            System.out.println("Synced " + file.getFileName() + ": " + counts[0] + " added, " + counts[1] + " changed, " + counts[2] + " deleted");
+        }
+    }
+
+    private void replace(Item ours, Item theirs) {
+        if (ours instanceof Book && theirs instanceof Book && ours.getType() == theirs.getType()) {
+            Book book = (Book) theirs;
+            library.updateBook((Book) ours, book.getTitle(), book.getAuthor(), book.getPageCount(), book.getYear());
+        } else {
+            library.deleteItemById(ours.getId());
+            library.addItem(copy(theirs, ours.getId()));
+        }
+    }
+
+    private static Item copy(Item item, int id) {
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            return new Book(id, book.getTitle(), book.getAuthor(), book.getType(), book.getPageCount(), book.getYear());
+        }
+        return new Item(id, item.getTitle(), item.getType());
+    }
+
+    static boolean sameContent(Item a, Item b) {
+        if (a.getType() != b.getType() || !a.getTitle().equals(b.getTitle()) || (a instanceof Book) != (b instanceof Book)) {
+            return false;
+        }
+        if (!(a instanceof Book)) {
+            return true;
+        }
+        Book x = (Book) a;
+        Book y = (Book) b;
+        return Objects.equals(x.getAuthor(), y.getAuthor()) && x.getPageCount() == y.getPageCount() && x.getYear() == y.getYear();
+    }
+
+    //{crc of the first prefix bytes, crc of the first length bytes} of path in
+    //one pass; the first is -1 when prefix is not within length
+    private static long[] crc(Path path, long length, long prefix) throws IOException {
+        CRC32 crc = new CRC32();
+        long prefixCrc = prefix == 0 ? crc.getValue() : -1;
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            long done = 0;
+            int read;
+            while (done < length) {
+                long stop = prefix > done && prefix < length ? prefix : length;
+                read = in.read(buf, 0, (int) Math.min(buf.length, stop - done));
+                if (read <= 0) {
+                    break;
+                }
+                crc.update(buf, 0, read);
+                done += read;
+                if (done == prefix) {
+                    prefixCrc = crc.getValue();
+                }
+            }
+        }
+        return new long[]{prefixCrc, crc.getValue()};
+    }
+
+    private void markLocalChange() {
+        localChanges = true;
+        if (saver == null || closed) {
+            return;
+        }
+        synchronized (saver) {
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+            }
+            pendingSave = saver.schedule(() -> {
+                try {
+                    save();
+                } catch (IOException e) {
+                    System.err.println("Error saving " + file + ": " + e.getMessage());
+                }
+            }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void localChange() {
+        if (applyingThread != Thread.currentThread()) {
+            markLocalChange();
+        }
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        localChange();
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        localChange();
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        localChange();
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        //views are not stored in the file
+    }
+}
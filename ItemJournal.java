@@ -0,0 +1,799 @@
+package test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+//append-only log of library changes plus a snapshot it is folded into.
+//every record carries the full state it sets (views carry the absolute count),
+//so replaying a record that is already in the snapshot changes nothing.
+//listener callbacks only encode and queue the record; a writer thread commits
+//whatever has queued up within FLUSH_WINDOW_MS as one write and one fsync.
+//Item id reservations are kept next to the snapshot (items.snap -> items.ids),
+//see IdAllocator. One process at a time may use a journal: it holds a lock on
+//items.lock from open or start until close
+class ItemJournal implements LibraryListener {
+    private static final long COMPACT_THRESHOLD = 4L * 1024 * 1024;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    private static final long FLUSH_WINDOW_MS = 20;
+    private static final int MAX_BATCH_RECORDS = 4096;
+    private static final Record SHUTDOWN = new Record((byte) 0, 0, 0, new byte[0]);
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+    private static final byte OP_VIEW = 4;
+    //writer-side only: several framed records queued as one, never on disk
+    private static final byte OP_BATCH = 5;
+
+    private static final byte KIND_ITEM = 0;
+    private static final byte KIND_BOOK = 1;
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path oldLogFile;
+    private final Path idFile;
+    private final Path lockFile;
+    private FileChannel lockChannel; //guarded by this, open while the journal is ours
+    private Library library;
+    private FileOutputStream logOut;
+    private OutputStream log;
+    private ScheduledExecutorService compactor;
+    private final BlockingQueue<Record> pending;
+    private final AtomicLong queuedRecords;
+    private final Object flushLock;
+    private long writtenRecords; //guarded by flushLock
+    //the first write that failed. Nothing is written after it, since records
+    //behind a torn one are dropped on replay anyway, and flush throws it
+    private volatile IOException failure;
+    private Thread writer;
+    //changes made on this thread are the load itself and are not logged again
+    private volatile Thread loadingThread;
+    private boolean listening;
+    private boolean closed;
+    //the store was loaded from this journal by open, so once every change is
+    //logged it holds exactly the journal; start alone can not tell
+    private boolean storeInStep;
+
+    //told after each chunk of a load reaches the library, on the loading thread
+    interface LoadListener {
+        void chunkLoaded(int itemsLoaded, double fraction);
+    }
+
+    public ItemJournal(String snapshotFile, String logFile) {
+        this.snapshotFile = Paths.get(snapshotFile);
+        this.logFile = Paths.get(logFile);
+        this.oldLogFile = Paths.get(logFile + ".old");
+        this.idFile = sibling(".ids");
+        this.lockFile = sibling(".lock");
+        this.pending = new LinkedBlockingQueue<>();
+        this.queuedRecords = new AtomicLong();
+        this.flushLock = new Object();
+    }
+
+    //the first of name.snap, name-2.snap, ... that no other instance holds,
+    //already claimed. Instances started in one directory each get their own
+    static ItemJournal claimFree(String name) throws IOException {
+        for (int n = 1; n <= 64; n++) {
+            String prefix = n == 1 ? name : name + "-" + n;
+            ItemJournal journal = new ItemJournal(prefix + ".snap", prefix + ".log");
+            if (journal.tryClaim()) {
+                return journal;
+            }
+        }
+        throw new IOException("Every journal " + name + " is in use");
+    }
+
+    //a file kept next to the snapshot: items.snap -> items + extension
+    Path sibling(String extension) {
+        String name = snapshotFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return snapshotFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + extension);
+    }
+
+    //takes the journal for this process. Two processes appending to one log
+    //and reserving ids from one file would each undo the other's writes
+    private void claim() throws IOException {
+        if (!tryClaim()) {
+            throw new IOException(snapshotFile + " is in use by another instance");
+        }
+    }
+
+    private synchronized boolean tryClaim() throws IOException {
+        if (lockChannel != null) {
+            return true;
+        }
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            //held by another journal in this process
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            return false;
+        }
+        lockChannel = channel;
+        return true;
+    }
+
+    //loads the snapshot and replays the logs into library, returns false when
+    //there is no snapshot yet so the caller can import from elsewhere
+    public boolean replay(Library library) throws IOException {
+        return replay(library, null);
+    }
+
+    //the logs are small, so they are read first and folded per id; each
+    //snapshot chunk is then brought up to date before it is added. An item
+    //therefore shows up once in its final state and is never changed again
+    //by the load after a user may have started editing it
+    private boolean replay(Library library, LoadListener progress) throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return false;
+        }
+        //a persistent store closed cleanly with this journal already holds
+        //the snapshot and the log up to its mark. The mark is cleared until
+        //the next clean close, so a crash meanwhile means a full load
+        ItemStore store = library.getStore();
+        long[] mark = store.getJournalMark();
+        store.setJournalMark(null);
+        if (mark != null && mark[0] == Files.size(snapshotFile)
+                && mark[1] == Files.getLastModifiedTime(snapshotFile).toMillis()
+                && !Files.exists(oldLogFile) && Files.exists(logFile) && Files.size(logFile) >= mark[2]) {
+            replayTail(library, mark[2], progress);
+            return true;
+        }
+        //otherwise a persistent store holds whatever it had when it was last
+        //used, which need not match the journal (another store may have been
+        //used since). The journal decides, so the store is emptied and
+        //refilled from it rather than keeping the ids it already holds
+        if (library.size() > 0) {
+            library.removeIf(item -> true);
+        }
+        LogOverlay overlay = new LogOverlay(0);
+        readLog(oldLogFile, overlay::apply);
+        readLog(logFile, overlay::apply);
+        int[] loaded = {0};
+        CatalogueSnapshot.read(snapshotFile, (items, views, fraction) -> {
+            List<Item> current = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Item item = overlay.resolve(items.get(i).getId(), items.get(i));
+                if (item != null) {
+                    library.getPopularity().restore(item.getId(), Math.max(views[i], overlay.views(item.getId())));
+                    current.add(item);
+                }
+            }
+            loaded[0] += library.addAll(current);
+            if (progress != null) {
+                progress.chunkLoaded(loaded[0], fraction);
+            }
+        });
+        //items added since the snapshot was written
+        List<Item> added = new ArrayList<>();
+        for (int id : new ArrayList<>(overlay.changes.keySet())) {
+            Item item = overlay.resolve(id, null);
+            if (item != null) {
+                library.getPopularity().restore(id, overlay.views(id));
+                added.add(item);
+            }
+        }
+        loaded[0] += library.addAll(added);
+        if (progress != null) {
+            progress.chunkLoaded(loaded[0], 1.0);
+        }
+        return true;
+    }
+
+    //brings a store that holds the journal up to logOffset up to date: the
+    //log records from there on are applied as upserts and deletes. View
+    //counts are not kept by stores, so they still come from the snapshot and
+    //the whole log; the snapshot's items are not decoded for that
+    private void replayTail(Library library, long logOffset, LoadListener progress) throws IOException {
+        LogOverlay overlay = new LogOverlay(logOffset);
+        readLog(logFile, overlay::apply);
+        PopularityTracker popularity = library.getPopularity();
+        CatalogueSnapshot.scan(snapshotFile, (items, views, fraction) -> {
+            for (int i = 0; i < items.size(); i++) {
+                int id = items.get(i).getId();
+                if (library.getItemById(id) != null) {
+                    popularity.restore(id, Math.max(views[i], overlay.views(id)));
+                }
+            }
+        });
+        List<Item> added = new ArrayList<>();
+        for (int id : new ArrayList<>(overlay.changes.keySet())) {
+            Item current = library.getItemById(id);
+            Item item = overlay.resolve(id, current);
+            if (item == null && current != null) {
+                library.deleteItemById(id);
+            } else if (item != null && current == null) {
+                added.add(item);
+            }
+        }
+        library.addAll(added);
+        for (int id : overlay.views.keySet()) {
+            if (library.getItemById(id) != null) {
+                popularity.restore(id, overlay.views(id));
+            }
+        }
+        if (progress != null) {
+            progress.chunkLoaded(library.size(), 1.0);
+        }
+    }
+
+    //what the store holds once the journal is closed: the snapshot by size
+    //and time, and how much of the log
+    private long[] currentMark() throws IOException {
+        return new long[]{Files.size(snapshotFile), Files.getLastModifiedTime(snapshotFile).toMillis(), Files.size(logFile)};
+    }
+
+    //replays the journal into library, importing importFile instead on the
+    //first run, then starts logging
+    public void open(Library library, String importFile) throws IOException {
+        open(library, importFile, null);
+    }
+
+    //the same, loading in chunks and telling progress after each. Other
+    //threads may use library meanwhile; their changes are logged once the
+    //load is done
+    public void open(Library library, String importFile, LoadListener progress) throws IOException {
+        claim();
+        IdAllocator.persistTo(idFile);
+        synchronized (this) {
+            this.library = library;
+            loadingThread = Thread.currentThread();
+            library.addLibraryListener(this);
+            listening = true;
+        }
+        try {
+            if (!replay(library, progress)) {
+                int[] loaded = {0};
+                new FileHandler().loadItemsFromFile(importFile, (items, fraction) -> {
+                    loaded[0] += library.addAll(items);
+                    if (progress != null) {
+                        progress.chunkLoaded(loaded[0], fraction);
+                    }
+                });
+            }
+        } finally {
+            loadingThread = null;
+        }
+        synchronized (this) {
+            storeInStep = true;
+        }
+        start(library);
+    }
+
+    //starts logging changes made to library from now on
+    public synchronized void start(Library library) throws IOException {
+        if (closed) {
+            return;
+        }
+        claim();
+        this.library = library;
+        IdAllocator.persistTo(idFile);
+        boolean hasSnapshot = Files.exists(snapshotFile);
+        openLog();
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        if (!listening) {
+            library.addLibraryListener(this);
+            listening = true;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!hasSnapshot) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Error writing initial snapshot: " + e.getMessage());
+                }
+            });
+        }
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (Files.size(logFile) > COMPACT_THRESHOLD) {
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Error compacting journal: " + e.getMessage());
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+    }
+
+    //folds the log into a fresh snapshot. The log is rotated first so writers
+    //only wait for the rename, not for the snapshot to be written. An old log
+    //left by a compaction that did not finish holds records no snapshot has,
+    //so the log is appended to it instead of replacing it
+    public void compact() throws IOException {
+        synchronized (this) {
+            log.close();
+            try {
+                if (Files.exists(oldLogFile)) {
+                    try (FileOutputStream out = new FileOutputStream(oldLogFile.toFile(), true)) {
+                        Files.copy(logFile, out);
+                        out.getChannel().force(false);
+                    }
+                    Files.delete(logFile);
+                } else {
+                    Files.move(logFile, oldLogFile);
+                }
+            } finally {
+                //replaying a record twice changes nothing, so a partial copy is harmless
+                openLog();
+            }
+        }
+        Path tempFile = Paths.get(snapshotFile + ".tmp");
+        CatalogueSnapshot.write(tempFile, library.getItems(), library.getPopularity());
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(oldLogFile);
+    }
+
+    //blocks until every change queued before the call is on disk, throws
+    //when they can not be: a write failed, now or earlier, or the writer stopped
+    public void flush() throws InterruptedException, IOException {
+        if (writer == null) {
+            checkFailure();
+            return;
+        }
+        long target = queuedRecords.get();
+        long written;
+        synchronized (flushLock) {
+            while (writtenRecords < target && writer.isAlive() && failure == null) {
+                flushLock.wait(FLUSH_WINDOW_MS);
+            }
+            written = writtenRecords;
+        }
+        checkFailure();
+        if (written < target) {
+            throw new IOException("Journal writer stopped before the changes were written");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("Journal write failed: " + failed.getMessage(), failed);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (flushLock) {
+            if (failure == null) {
+                failure = e;
+                System.err.println("Error writing journal, further changes are not saved: " + e.getMessage());
+            }
+            flushLock.notifyAll();
+        }
+    }
+
+    //stops listening, commits everything still queued and closes the log
+    public void close() {
+        Thread running;
+        synchronized (this) {
+            closed = true;
+            running = writer;
+        }
+        if (library != null) {
+            library.removeLibraryListener(this);
+        }
+        if (running == null) {
+            //closed mid-load: commit what was changed meanwhile without a writer
+            commitPendingDirectly();
+        }
+        try {
+            if (compactor != null) {
+                compactor.shutdown();
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            if (writer != null) {
+                pending.add(SHUTDOWN);
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                if (log != null) {
+                    log.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+            try {
+                if (storeInStep && failure == null && log != null
+                        && Files.exists(snapshotFile) && !Files.exists(oldLogFile)) {
+                    library.getStore().setJournalMark(currentMark());
+                }
+            } catch (IOException e) {
+                System.err.println("Error marking the store: " + e.getMessage());
+            }
+            try {
+                if (lockChannel != null) {
+                    lockChannel.close();
+                    lockChannel = null;
+                }
+            } catch (IOException e) {
+                System.err.println("Error releasing journal lock: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        append(OP_ADD, item, 0);
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        append(OP_DELETE, item, 0);
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        append(OP_UPDATE, item, 0);
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        append(OP_VIEW, item, viewCount);
+    }
+
+    @Override
+    public void itemsAdded(List<Item> items) {
+        appendBatch(OP_ADD, items);
+    }
+
+    @Override
+    public void itemsRemoved(List<Item> items) {
+        appendBatch(OP_DELETE, items);
+    }
+
+    @Override
+    public void itemsUpdated(List<Item> items) {
+        appendBatch(OP_UPDATE, items);
+    }
+
+    private void append(byte op, Item item, long viewCount) {
+        if (Thread.currentThread() == loadingThread) {
+            return;
+        }
+        try {
+            pending.add(new Record(op, item.getId(), viewCount, frame(op, item, viewCount)));
+            queuedRecords.incrementAndGet();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    //a bulk operation is queued as one record, so it reaches the log in a
+    //single write and fsync however many items it touched
+    private void appendBatch(byte op, List<Item> items) {
+        if (Thread.currentThread() == loadingThread) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * items.size());
+            for (Item item : items) {
+                bytes.write(frame(op, item, 0));
+            }
+            pending.add(new Record(OP_BATCH, -1, 0, bytes.toByteArray()));
+            queuedRecords.incrementAndGet();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    //record layout: payload length, payload, CRC32 of the payload
+    private static byte[] frame(byte op, Item item, long viewCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(0);
+        record.writeByte(op);
+        if (op == OP_ADD || op == OP_UPDATE) {
+            writeItem(record, item);
+        } else {
+            record.writeInt(item.getId());
+            if (op == OP_VIEW) {
+                record.writeLong(viewCount);
+            }
+        }
+        int length = bytes.size() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 4, length);
+        record.writeInt((int) crc.getValue());
+        byte[] framed = bytes.toByteArray();
+        framed[0] = (byte) (length >>> 24);
+        framed[1] = (byte) (length >>> 16);
+        framed[2] = (byte) (length >>> 8);
+        framed[3] = (byte) length;
+        return framed;
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_WINDOW_MS);
+                while (batch.size() < MAX_BATCH_RECORDS && batch.get(batch.size() - 1) != SHUTDOWN) {
+                    Record next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty() && batch.get(batch.size() - 1) == SHUTDOWN) {
+                batch.remove(batch.size() - 1);
+                running = false;
+            }
+            try {
+                if (failure == null) {
+                    commit(batch);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            //counted even when dropped, flush reports the failure instead
+            synchronized (flushLock) {
+                writtenRecords += batch.size();
+                flushLock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    //drops records that others in the same batch make redundant: an update
+    //followed by another update of the same item, or any view of an item but
+    //the one with the highest count. Views of one item can be queued out of
+    //order by racing viewers, so the last one queued need not be the highest
+    private void commit(List<Record> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> topView = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Record record = batch.get(i);
+            if (record.op == OP_VIEW) {
+                Integer top = topView.get(record.id);
+                if (top == null || batch.get(top).viewCount <= record.viewCount) {
+                    topView.put(record.id, i);
+                }
+            }
+        }
+        Map<Integer, Byte> laterOp = new HashMap<>();
+        boolean[] skip = new boolean[batch.size()];
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Record record = batch.get(i);
+            if (record.op == OP_VIEW) {
+                skip[i] = topView.get(record.id) != i;
+            } else {
+                skip[i] = record.op == OP_UPDATE && laterOp.get(record.id) != null && laterOp.get(record.id) == OP_UPDATE;
+                laterOp.put(record.id, record.op);
+            }
+        }
+        synchronized (this) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (!skip[i]) {
+                    log.write(batch.get(i).bytes);
+                }
+            }
+            log.flush();
+            logOut.getChannel().force(false);
+        }
+    }
+
+    //stops at the first torn or corrupt record, which can only be the tail
+    //left by a crash mid-write, and cuts it off so new records follow good ones
+    private void readLog(Path file, RecordVisitor visitor) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                visitor.visit(new DataInputStream(new ByteArrayInputStream(record)), validLength);
+                validLength += 8 + record.length;
+            }
+        }
+        if (validLength < Files.size(file)) {
+            System.err.println("Dropping torn journal tail in " + file);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    private interface RecordVisitor {
+        //offset is where the record starts in its file
+        void visit(DataInputStream record, long offset) throws IOException;
+    }
+
+    //the logs folded per id: the changes each id went through since its last
+    //delete (a null item is the delete itself), and the latest view count.
+    //Changes before changesFrom in the current log are already applied and
+    //only their view counts are kept
+    private static class LogOverlay {
+        final TreeMap<Integer, List<Change>> changes = new TreeMap<>();
+        final Map<Integer, Long> views = new HashMap<>();
+        final long changesFrom;
+
+        LogOverlay(long changesFrom) {
+            this.changesFrom = changesFrom;
+        }
+
+        void apply(DataInputStream record, long offset) throws IOException {
+            byte op = record.readByte();
+            if (offset < changesFrom && op != OP_VIEW) {
+                return;
+            }
+            if (op == OP_ADD || op == OP_UPDATE) {
+                Item item = readItem(record);
+                changes.computeIfAbsent(item.getId(), k -> new ArrayList<>()).add(new Change(op, item));
+            } else if (op == OP_DELETE) {
+                List<Change> list = changes.computeIfAbsent(record.readInt(), k -> new ArrayList<>());
+                list.clear();
+                list.add(new Change(op, null));
+            } else if (op == OP_VIEW) {
+                views.merge(record.readInt(), record.readLong(), Math::max);
+            }
+        }
+
+        long views(int id) {
+            return views.getOrDefault(id, 0L);
+        }
+
+        //what item (null if it is not in the snapshot) ends up as, null when
+        //deleted. Follows what replaying each record through Library did: only
+        //an add fills a missing id, so an update that raced a delete and was
+        //logged after it does not bring the item back. An add or update edits
+        //a book's fields, keeping its type
+        Item resolve(int id, Item item) {
+            List<Change> list = changes.remove(id);
+            if (list == null) {
+                return item;
+            }
+            for (Change change : list) {
+                if (change.item == null) {
+                    item = null;
+                } else if (item == null) {
+                    if (change.op == OP_ADD) {
+                        item = change.item;
+                    }
+                } else if (item instanceof Book && change.item instanceof Book) {
+                    Book book = (Book) item;
+                    Book edit = (Book) change.item;
+                    book.setTitle(edit.getTitle());
+                    book.setAuthor(edit.getAuthor());
+                    book.setPageCount(edit.getPageCount());
+                    book.setYear(edit.getYear());
+                }
+            }
+            return item;
+        }
+    }
+
+    private static class Change {
+        final byte op;
+        final Item item; //null for a delete
+
+        Change(byte op, Item item) {
+            this.op = op;
+            this.item = item;
+        }
+    }
+
+    private void commitPendingDirectly() {
+        List<Record> batch = new ArrayList<>();
+        pending.drainTo(batch);
+        if (batch.isEmpty() || failure != null) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (log == null) {
+                    openLog();
+                }
+            }
+            commit(batch);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void openLog() throws IOException {
+        logOut = new FileOutputStream(logFile.toFile(), true);
+        log = new BufferedOutputStream(logOut, 1 << 16);
+    }
+
+    private static void writeItem(DataOutputStream out, Item item) throws IOException {
+        out.writeInt(item.getId());
+        out.writeInt(item.getType());
+        out.writeUTF(item.getTitle());
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            out.writeByte(KIND_BOOK);
+            out.writeUTF(book.getAuthor());
+            out.writeInt(book.getPageCount());
+            out.writeInt(book.getYear());
+        } else {
+            out.writeByte(KIND_ITEM);
+        }
+    }
+
+    static Item readItem(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        int type = in.readInt();
+        String title = in.readUTF();
+        if (in.readByte() == KIND_BOOK) {
+            String author = in.readUTF();
+            int pageCount = in.readInt();
+            int year = in.readInt();
+            return new Book(id, title, author, type, pageCount, year);
+        }
+        return new Item(id, title, type);
+    }
+
+    private static class Record {
+        final byte op;
+        final int id;
+        final long viewCount;
+        final byte[] bytes;
+
+        Record(byte op, int id, long viewCount, byte[] bytes) {
+            this.op = op;
+            this.id = id;
+            this.viewCount = viewCount;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+//where a Library keeps its items. Library serialises writes per item id, so
+//stores only need to be safe for concurrent readers alongside one writer per id.
+//the objects a store hands out are what callers see; a store may return the
+//added object itself or a view that reads and writes the store directly
+interface ItemStore {
+    void attach(Library library);
+
+    //stores item's current fields and returns the object to hand out for it
+    Item add(Item item);
+
+    Item get(int id);
+
+    boolean contains(int id);
+
+    void remove(int id);
+
+    int size();
+
+    //every item, in id order
+    List<Item> items();
+
+    //the journal state a persistent store was left holding by a clean
+    //shutdown, as set by ItemJournal; null when there is none. Stores that
+    //keep nothing across runs ignore it
+    default long[] getJournalMark() {
+        return null;
+    }
+
+    default void setJournalMark(long[] mark) {
+    }
+
+    //--columnar keeps the catalogue in primitive columns instead of one object per item,
+    //--offheap keeps it outside the Java heap and --offheap=<dir> maps it to files in dir
+    static ItemStore fromArgs(String[] args) {
+        ItemStore store = new HeapItemStore();
+        for (String arg : args) {
+            if (arg.equals("--columnar")) {
+                store = new ColumnarItemStore();
+            } else if (arg.equals("--offheap")) {
+                store = new OffHeapItemStore();
+            } else if (arg.startsWith("--offheap=")) {
+                try {
+                    store = OffHeapItemStore.open(Paths.get(arg.substring("--offheap=".length())));
+                } catch (IOException e) {
+                    System.err.println("Error opening off-heap store: " + e.getMessage());
+                }
+            }
+        }
+        return store;
+    }
+}
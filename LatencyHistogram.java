@@ -0,0 +1,130 @@
+package test;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//log-linear latency histogram in the style of HdrHistogram: values below 16
+//get their own bucket, above that every power of two is split into 16
+//buckets, so any recorded value is off by at most 1/16 (~6%). Recording is
+//a few array increments and never allocates. Writers spread over stripes
+//picked by thread id so busy threads rarely share a cache line
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //2^42 ns is over an hour, anything slower lands in the last bucket
+    private static final int MAX_EXPONENT = 42;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    //per stripe: BUCKETS counts, then sum and max
+    private static final int STRIPE_LENGTH = BUCKETS + 2;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.counts = new AtomicLongArray(stripes * STRIPE_LENGTH);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int base = (int) (Thread.currentThread().getId() & stripeMask) * STRIPE_LENGTH;
+        counts.incrementAndGet(base + bucketOf(nanos));
+        counts.addAndGet(base + BUCKETS, nanos);
+        long max = counts.get(base + BUCKETS + 1);
+        while (nanos > max && !counts.compareAndSet(base + BUCKETS + 1, max, nanos)) {
+            max = counts.get(base + BUCKETS + 1);
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    //smallest value that lands in bucket
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (SUB_BUCKETS + (long) (bucket % SUB_BUCKETS)) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int base = 0; base < counts.length(); base += STRIPE_LENGTH) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucket = counts.get(base + i);
+                buckets[i] += bucket;
+                count += bucket;
+            }
+            sum += counts.get(base + BUCKETS);
+            max = Math.max(max, counts.get(base + BUCKETS + 1));
+        }
+        return new Snapshot(buckets, count, sum, max);
+    }
+
+    //not atomic with concurrent recording; a value recorded meanwhile may be
+    //half kept, which is fine for monitoring
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    //a consistent-enough copy to compute percentiles from
+    static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        //upper edge of the bucket holding the percentile, capped at the max seen
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    long upper = i + 1 < BUCKETS ? lowestValue(i + 1) - 1 : max;
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//thread-safe: reads go straight to the store and concurrent indexes and never
+//block, writers lock one of LOCK_STRIPES stripes chosen by item id. Items are
+//kept in an ItemStore; the default keeps the Item objects themselves
+class Library {
+    private static final int LOCK_STRIPES = 64;
+
+    private ItemStore store;
+    private Object[] locks;
+    private ConcurrentHashMap<String, int[]> idsByTitle;
+    private PopularityTracker popularity;
+    private BookRangeIndex rangeIndex;
+    private List<LibraryListener> listeners;
+    private volatile SnapshotIndex snapshots; //null until the first snapshot()
+    //runs updateAll's edit; the setters it calls are reported in one batch
+    private volatile Thread batchEditor;
+
+    public Library() {
+        this(new HeapItemStore());
+    }
+
+    public Library(ItemStore store) {
+        this.store = store;
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        idsByTitle = new ConcurrentHashMap<>();
+        popularity = new PopularityTracker();
+        listeners = new CopyOnWriteArrayList<>();
+        rangeIndex = new BookRangeIndex(this);
+        listeners.add(rangeIndex);
+        store.attach(this);
+        //a persistent store may already hold items from an earlier run
+        for (Item item : store.items()) {
+            addToTitleIndex(item.getId(), item.getTitle());
+            rangeIndex.itemAdded(item);
+        }
+    }
+
+    public void addLibraryListener(LibraryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeLibraryListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean addItem(Item item) {
+        long start = LibraryMetrics.ADD_ITEM.start();
+        try {
+            synchronized (lockFor(item.getId())) {
+                if (store.contains(item.getId())) {
+                    return false;
+                }
+                Item stored = store.add(item);
+                stored.library = this;
+                addToTitleIndex(item.getId(), item.getTitle());
+                for (LibraryListener listener : listeners) {
+                    listener.itemAdded(stored);
+                }
+            }
+            return true;
+        } finally {
+            LibraryMetrics.ADD_ITEM.record(start);
+        }
+    }
+
+    public boolean deleteItem(String title) {
+        long start = LibraryMetrics.DELETE_ITEM.start();
+        try {
+            while (true) {
+                int[] matches = idsByTitle.get(title);
+                if (matches == null) {
+                    return false;
+                }
+                synchronized (lockFor(matches[0])) {
+                    //another thread deleted or renamed it first, pick again
+                    Item item = store.get(matches[0]);
+                    if (item == null || !item.getTitle().equals(title)) {
+                        continue;
+                    }
+                    removeLocked(item);
+                }
+                return true;
+            }
+        } finally {
+            LibraryMetrics.DELETE_ITEM.record(start);
+        }
+    }
+
+    public boolean deleteItemById(int id) {
+        long start = LibraryMetrics.DELETE_ITEM_BY_ID.start();
+        try {
+            synchronized (lockFor(id)) {
+                Item item = store.get(id);
+                if (item == null) {
+                    return false;
+                }
+                removeLocked(item);
+            }
+            return true;
+        } finally {
+            LibraryMetrics.DELETE_ITEM_BY_ID.record(start);
+        }
+    }
+
+    //caller holds the item's lock stripe
+    private void removeLocked(Item item) {
+        unlinkLocked(item);
+        popularity.remove(item.getId());
+        for (LibraryListener listener : listeners) {
+            listener.itemRemoved(item);
+        }
+    }
+
+    private void unlinkLocked(Item item) {
+        removeFromTitleIndex(item.getId(), item.getTitle());
+        store.remove(item.getId());
+        item.library = null;
+    }
+
+    //adds every item not already in the library, returns how many were added
+    public int addAll(Collection<? extends Item> items) {
+        long start = LibraryMetrics.ADD_ALL.start();
+        try {
+            List<Item> added = new ArrayList<>(items.size());
+            withAllStripes(0, () -> {
+                for (Item item : items) {
+                    if (!store.contains(item.getId())) {
+                        Item stored = store.add(item);
+                        stored.library = this;
+                        addToTitleIndex(item.getId(), item.getTitle());
+                        added.add(stored);
+                    }
+                }
+                fireItemsChanged(added, LibraryListener::itemsAdded);
+            });
+            return added.size();
+        } finally {
+            LibraryMetrics.ADD_ALL.record(start);
+        }
+    }
+
+    //deletes every item filter accepts, returns how many were deleted
+    public int removeIf(Predicate<? super Item> filter) {
+        long start = LibraryMetrics.REMOVE_IF.start();
+        try {
+            List<Item> removed = new ArrayList<>();
+            withAllStripes(0, () -> {
+                for (Item item : store.items()) {
+                    if (filter.test(item)) {
+                        removed.add(item);
+                    }
+                }
+                removeAllLocked(removed);
+            });
+            return removed.size();
+        } finally {
+            LibraryMetrics.REMOVE_IF.record(start);
+        }
+    }
+
+    //deletes every item with one of the titles, not just the first match
+    public int deleteByTitles(Collection<String> titles) {
+        long start = LibraryMetrics.DELETE_BY_TITLES.start();
+        try {
+            List<Item> removed = new ArrayList<>();
+            Set<Integer> removedIds = new HashSet<>();
+            withAllStripes(0, () -> {
+                for (String title : titles) {
+                    int[] matches = idsByTitle.get(title);
+                    if (matches == null) {
+                        continue;
+                    }
+                    for (int id : matches) {
+                        Item item = store.get(id);
+                        if (item != null && removedIds.add(id)) {
+                            removed.add(item);
+                        }
+                    }
+                }
+                removeAllLocked(removed);
+            });
+            return removed.size();
+        } finally {
+            LibraryMetrics.DELETE_BY_TITLES.record(start);
+        }
+    }
+
+    //applies edit to the stored copy of every book filter accepts, returns how
+    //many were edited. edit may use the Book setters, including setTitle
+    public int updateAll(Predicate<? super Book> filter, Consumer<? super Book> edit) {
+        long start = LibraryMetrics.UPDATE_ALL.start();
+        try {
+            List<Item> updated = new ArrayList<>();
+            withAllStripes(0, () -> {
+                batchEditor = Thread.currentThread();
+                try {
+                    for (Item item : store.items()) {
+                        if (item instanceof Book && filter.test((Book) item)) {
+                            edit.accept((Book) item);
+                            updated.add(item);
+                        }
+                    }
+                } finally {
+                    batchEditor = null;
+                }
+                fireItemsChanged(updated, LibraryListener::itemsUpdated);
+            });
+            return updated.size();
+        } finally {
+            LibraryMetrics.UPDATE_ALL.record(start);
+        }
+    }
+
+    //caller holds every lock stripe
+    private void removeAllLocked(List<Item> items) {
+        int[] ids = new int[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).getId();
+            unlinkLocked(items.get(i));
+        }
+        popularity.removeAll(ids);
+        fireItemsChanged(items, LibraryListener::itemsRemoved);
+    }
+
+    private void fireItemsChanged(List<Item> items, BiConsumer<LibraryListener, List<Item>> event) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<Item> batch = Collections.unmodifiableList(items);
+        for (LibraryListener listener : listeners) {
+            event.accept(listener, batch);
+        }
+    }
+
+    //bulk operations hold every stripe, taken in order, so a batch is applied
+    //and reported in one piece with no single-item change interleaved
+    private void withAllStripes(int stripe, Runnable action) {
+        if (stripe == locks.length) {
+            action.run();
+            return;
+        }
+        synchronized (locks[stripe]) {
+            withAllStripes(stripe + 1, action);
+        }
+    }
+
+    //edits go through here rather than the Book setters so listeners hear one
+    //change per edit. The stored copy is edited, whichever object is passed in
+    public boolean updateBook(Book book, String title, String author, int pageCount, int year) {
+        long start = LibraryMetrics.UPDATE_BOOK.start();
+        try {
+            synchronized (lockFor(book.getId())) {
+                Item stored = store.get(book.getId());
+                if (!(stored instanceof Book)) {
+                    return false;
+                }
+                Book target = (Book) stored;
+                if (!target.getTitle().equals(title)) {
+                    renameLocked(target, title);
+                }
+                target.assignAuthor(author);
+                target.assignPageCount(pageCount);
+                target.assignYear(year);
+                fireItemUpdated(target);
+            }
+            return true;
+        } finally {
+            LibraryMetrics.UPDATE_BOOK.record(start);
+        }
+    }
+
+    public List<Item> getAvailableItems() {
+        return getItems();
+    }
+    
+    //the stored objects, copied into a new list on every call. Changes made
+    //while the copy is taken may be half seen; use snapshot() for a consistent view
+    public List<Item> getItems() {
+        long start = LibraryMetrics.GET_ITEMS.start();
+        try {
+            return Collections.unmodifiableList(store.items());
+        } finally {
+            LibraryMetrics.GET_ITEMS.record(start);
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    //every item as of one moment, see LibrarySnapshot. O(1) once enabled: the
+    //first call copies the catalogue and from then on each change updates it
+    public LibrarySnapshot snapshot() {
+        SnapshotIndex index = snapshots;
+        if (index == null) {
+            index = enableSnapshots();
+        }
+        return index.get();
+    }
+
+    //holding every stripe, no change can land between the copy and the
+    //listener taking over
+    private SnapshotIndex enableSnapshots() {
+        withAllStripes(0, () -> {
+            if (snapshots == null) {
+                PersistentIntMap.Editor<Item> editor = PersistentIntMap.<Item>empty().editor();
+                for (Item item : store.items()) {
+                    editor.put(item.getId(), LibrarySnapshot.freeze(item));
+                }
+                SnapshotIndex index = new SnapshotIndex(new LibrarySnapshot(editor.done(), 0));
+                //first in line, so a listener that takes a snapshot already finds the change in it
+                listeners.add(0, index);
+                snapshots = index;
+            }
+        });
+        return snapshots;
+    }
+
+    public Item getItemById(int id) {
+        return store.get(id);
+    }
+
+    public List<Item> getItemsByTitle(String title) {
+        long start = LibraryMetrics.GET_ITEMS_BY_TITLE.start();
+        try {
+            int[] matches = idsByTitle.get(title);
+            if (matches == null) {
+                return Collections.emptyList();
+            }
+            List<Item> items = new ArrayList<>(matches.length);
+            for (int id : matches) {
+                Item item = store.get(id);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items;
+        } finally {
+            LibraryMetrics.GET_ITEMS_BY_TITLE.record(start);
+        }
+    }
+    
+    public int getBookPageCount(String title) {
+        long start = LibraryMetrics.GET_BOOK_PAGE_COUNT.start();
+        try {
+            Book book = findBook(title);
+            return book != null ? book.getPageCount() : -1;
+        } finally {
+            LibraryMetrics.GET_BOOK_PAGE_COUNT.record(start);
+        }
+    }
+
+    public int getBookYear(String title) {
+        long start = LibraryMetrics.GET_BOOK_YEAR.start();
+        try {
+            Book book = findBook(title);
+            return book != null ? book.getYear() : -1;
+        } finally {
+            LibraryMetrics.GET_BOOK_YEAR.record(start);
+        }
+    }
+
+    public void setBookPageCount(String title, int pageCount) {
+        long start = LibraryMetrics.SET_BOOK_PAGE_COUNT.start();
+        try {
+            for (Item item : getItemsByTitle(title)) {
+                synchronized (lockFor(item.getId())) {
+                    //looked up before the lock; skip it if a delete or rename got in first
+                    Item current = store.get(item.getId());
+                    if (!(current instanceof Book) || !current.getTitle().equals(title)) {
+                        continue;
+                    }
+                    ((Book) current).assignPageCount(pageCount);
+                    fireItemUpdated(current);
+                }
+            }
+        } finally {
+            LibraryMetrics.SET_BOOK_PAGE_COUNT.record(start);
+        }
+    }
+
+    public void setBookYear(String title, int year) {
+        long start = LibraryMetrics.SET_BOOK_YEAR.start();
+        try {
+            for (Item item : getItemsByTitle(title)) {
+                synchronized (lockFor(item.getId())) {
+                    //as in setBookPageCount
+                    Item current = store.get(item.getId());
+                    if (!(current instanceof Book) || !current.getTitle().equals(title)) {
+                        continue;
+                    }
+                    ((Book) current).assignYear(year);
+                    fireItemUpdated(current);
+                }
+            }
+        } finally {
+            LibraryMetrics.SET_BOOK_YEAR.record(start);
+        }
+    }
+    
+    
+    public void viewBook(String title) {
+        long start = LibraryMetrics.VIEW_BOOK.start();
+        try {
+            //incrmnt popularity count
+            Book book = findBook(title);
+            if (book != null) {
+                recordView(book);
+            }
+        } finally {
+            LibraryMetrics.VIEW_BOOK.record(start);
+        }
+    }
+
+    public void viewItem(int id) {
+        long start = LibraryMetrics.VIEW_ITEM.start();
+        try {
+            Item item = store.get(id);
+            if (item instanceof Book) {
+                recordView(item);
+            }
+        } finally {
+            LibraryMetrics.VIEW_ITEM.record(start);
+        }
+    }
+
+    //under the item's stripe lock and only while it is stored, so a delete
+    //racing the view cannot leave counts behind for an item that is gone
+    private void recordView(Item item) {
+        synchronized (lockFor(item.getId())) {
+            if (!store.contains(item.getId())) {
+                return;
+            }
+            long count = popularity.recordView(item.getId());
+            for (LibraryListener listener : listeners) {
+                listener.itemViewed(item, count);
+            }
+        }
+    }
+
+    private void fireItemUpdated(Item item) {
+        for (LibraryListener listener : listeners) {
+            listener.itemUpdated(item);
+        }
+    }
+
+    public int getBookPopularityCount(String title) {
+        long start = LibraryMetrics.GET_BOOK_POPULARITY_COUNT.start();
+        try {
+            Book book = findBook(title);
+            return book != null ? (int) popularity.getCount(book.getId()) : 0;
+        } finally {
+            LibraryMetrics.GET_BOOK_POPULARITY_COUNT.record(start);
+        }
+    }
+
+    //views in the last minutes minutes, see TrendingTracker for the window
+    public int getBookPopularityCount(String title, int minutes) {
+        long start = LibraryMetrics.GET_RECENT_POPULARITY_COUNT.start();
+        try {
+            Book book = findBook(title);
+            return book != null ? (int) popularity.getRecentCount(book.getId(), minutes) : 0;
+        } finally {
+            LibraryMetrics.GET_RECENT_POPULARITY_COUNT.record(start);
+        }
+    }
+
+    public List<TopKTracker.Entry> getTrendingBooks(int n, int minutes) {
+        long start = LibraryMetrics.GET_TRENDING_BOOKS.start();
+        try {
+            return popularity.getTrending(n, minutes);
+        } finally {
+            LibraryMetrics.GET_TRENDING_BOOKS.record(start);
+        }
+    }
+
+    public List<Book> getBooksByYear(int from, int to) {
+        long start = LibraryMetrics.GET_BOOKS_BY_YEAR.start();
+        try {
+            return rangeIndex.getBooksByYear(from, to);
+        } finally {
+            LibraryMetrics.GET_BOOKS_BY_YEAR.record(start);
+        }
+    }
+
+    public List<Book> getBooksByPageCount(int min, int max) {
+        long start = LibraryMetrics.GET_BOOKS_BY_PAGE_COUNT.start();
+        try {
+            return rangeIndex.getBooksByPageCount(min, max);
+        } finally {
+            LibraryMetrics.GET_BOOKS_BY_PAGE_COUNT.record(start);
+        }
+    }
+
+    public List<Book> getBooks(int fromYear, int toYear, int minPages, int maxPages) {
+        long start = LibraryMetrics.GET_BOOKS.start();
+        try {
+            return rangeIndex.getBooks(fromYear, toYear, minPages, maxPages);
+        } finally {
+            LibraryMetrics.GET_BOOKS.record(start);
+        }
+    }
+
+    ItemStore getStore() {
+        return store;
+    }
+
+    public PopularityTracker getPopularity() {
+        return popularity;
+    }
+
+    //called by Book.setTitle so renamed items move to their new title bucket
+    //and listeners hear of it
+    void renameItem(Item item, String title) {
+        synchronized (lockFor(item.getId())) {
+            if (store.contains(item.getId())) {
+                renameLocked(item, title);
+                if (batchEditor != Thread.currentThread()) {
+                    fireItemUpdated(item);
+                }
+            } else {
+                item.assignTitle(title);
+            }
+        }
+    }
+
+    //called by the other Book setters, one event per call
+    void editBook(Book book, Consumer<Book> edit) {
+        synchronized (lockFor(book.getId())) {
+            edit.accept(book);
+            if (store.contains(book.getId()) && batchEditor != Thread.currentThread()) {
+                fireItemUpdated(book);
+            }
+        }
+    }
+
+    private void renameLocked(Item item, String title) {
+        removeFromTitleIndex(item.getId(), item.getTitle());
+        item.assignTitle(title);
+        addToTitleIndex(item.getId(), title);
+    }
+
+    private Object lockFor(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    //title buckets are small immutable id arrays swapped inside compute, so
+    //readers never see a half-updated bucket
+    private void addToTitleIndex(int id, String title) {
+        idsByTitle.compute(title, (k, matches) -> {
+            if (matches == null) {
+                return new int[] { id };
+            }
+            int[] updated = Arrays.copyOf(matches, matches.length + 1);
+            updated[matches.length] = id;
+            return updated;
+        });
+    }
+
+    private void removeFromTitleIndex(int id, String title) {
+        idsByTitle.computeIfPresent(title, (k, matches) -> {
+            int[] updated = new int[matches.length];
+            int count = 0;
+            for (int match : matches) {
+                if (match != id) {
+                    updated[count++] = match;
+                }
+            }
+            return count == 0 ? null : Arrays.copyOf(updated, count);
+        });
+    }
+
+    private Book findBook(String title) {
+        int[] matches = idsByTitle.get(title);
+        if (matches != null) {
+            for (int id : matches) {
+                Item item = store.get(id);
+                if (item instanceof Book) {
+                    return (Book) item;
+                }
+            }
+        }
+        return null;
+    }
+}
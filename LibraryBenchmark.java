@@ -0,0 +1,369 @@
+package test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.swing.SwingUtilities;
+
+//headless benchmarks for Library, FileHandler and the table model, in the
+//spirit of JMH: per-size fixtures from CatalogueGenerator, untimed setup and
+//teardown around each iteration, warmup iterations that are thrown away and
+//a JSON report shaped like JMH's (average time, ns/op). Run with
+//  javac -d out *.java && java -cp out test.LibraryBenchmark
+//      [--sizes=1000,100000] [--benchmarks=regex] [--warmup=3] [--iterations=5] [--out=benchmark.json]
+class LibraryBenchmark {
+    private static final long SEED = 42;
+    //mutating benchmarks touch at most this many items per iteration so the
+    //catalogue stays near its nominal size
+    private static final int MAX_MUTATIONS = 10000;
+    private static final int READS = 200000;
+    //small catalogues repeat the timed part until an iteration is this long
+    private static final long MIN_ITERATION_NANOS = 100_000_000L;
+
+    private static volatile long sink;
+
+    //catalogue of one size, shared by every benchmark run at that size
+    private static class Fixture {
+        final int size;
+        final Library library;
+        final String[] titles;
+        final Path file;
+        final Path saveFile;
+        final Random random;
+
+        Fixture(int size) throws IOException {
+            this.size = size;
+            this.library = new Library();
+            List<Item> items = new CatalogueGenerator(SEED).generate(size);
+            library.addAll(items);
+            List<String> bookTitles = new ArrayList<>();
+            for (Item item : items) {
+                if (item instanceof Book) {
+                    bookTitles.add(item.getTitle());
+                }
+            }
+            this.titles = bookTitles.toArray(new String[0]);
+            this.file = Files.createTempFile("catalogue-" + size + "-", ".txt");
+            this.saveFile = Files.createTempFile("catalogue-save-" + size + "-", ".txt");
+            new FileHandler().saveItemsToFile(items, file.toString());
+            this.random = new Random(SEED);
+        }
+
+        String randomTitle() {
+            return titles[random.nextInt(titles.length)];
+        }
+
+        void close() throws IOException {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(saveFile);
+        }
+    }
+
+    private abstract static class Benchmark {
+        final String name;
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        void setUp(Fixture fixture) throws Exception {
+        }
+
+        //timed; returns the number of operations it performed
+        abstract int run(Fixture fixture) throws Exception;
+
+        void tearDown(Fixture fixture) throws Exception {
+        }
+    }
+
+    private static List<Benchmark> benchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("Library.addItem") {
+            List<Item> items;
+
+            @Override
+            void setUp(Fixture fixture) {
+                items = new CatalogueGenerator(fixture.random.nextLong()).generate(Math.min(fixture.size, MAX_MUTATIONS));
+            }
+
+            @Override
+            int run(Fixture fixture) {
+                for (Item item : items) {
+                    fixture.library.addItem(item);
+                }
+                return items.size();
+            }
+
+            @Override
+            void tearDown(Fixture fixture) {
+                for (Item item : items) {
+                    fixture.library.deleteItemById(item.getId());
+                }
+            }
+        });
+        benchmarks.add(new Benchmark("Library.deleteItem") {
+            List<Item> victims;
+
+            @Override
+            void setUp(Fixture fixture) {
+                Set<String> picked = new HashSet<>();
+                int count = Math.min(fixture.titles.length / 2, MAX_MUTATIONS);
+                while (picked.size() < count) {
+                    picked.add(fixture.randomTitle());
+                }
+                victims = new ArrayList<>();
+                for (String title : picked) {
+                    victims.addAll(fixture.library.getItemsByTitle(title));
+                }
+            }
+
+            @Override
+            int run(Fixture fixture) {
+                for (Item victim : victims) {
+                    fixture.library.deleteItem(victim.getTitle());
+                }
+                return victims.size();
+            }
+
+            @Override
+            void tearDown(Fixture fixture) {
+                fixture.library.addAll(victims);
+            }
+        });
+        benchmarks.add(new Benchmark("Library.viewBook") {
+            String[] titles;
+
+            @Override
+            void setUp(Fixture fixture) {
+                titles = randomTitles(fixture, READS);
+            }
+
+            @Override
+            int run(Fixture fixture) {
+                for (String title : titles) {
+                    fixture.library.viewBook(title);
+                }
+                return titles.length;
+            }
+        });
+        benchmarks.add(new Benchmark("Library.getBookYear") {
+            String[] titles;
+
+            @Override
+            void setUp(Fixture fixture) {
+                titles = randomTitles(fixture, READS);
+            }
+
+            @Override
+            int run(Fixture fixture) {
+                long sum = 0;
+                for (String title : titles) {
+                    sum += fixture.library.getBookYear(title);
+                }
+                sink = sum;
+                return titles.length;
+            }
+        });
+        benchmarks.add(new Benchmark("FileHandler.loadItemsFromFile") {
+            @Override
+            int run(Fixture fixture) {
+                sink = new FileHandler().loadItemsFromFile(fixture.file.toString()).size();
+                return 1;
+            }
+        });
+        benchmarks.add(new Benchmark("FileHandler.saveItemsToFile") {
+            @Override
+            int run(Fixture fixture) {
+                new FileHandler().saveItemsToFile(fixture.library.getItems(), fixture.saveFile.toString());
+                return 1;
+            }
+        });
+        //what updateTable used to do on every change: build the rows from scratch
+        benchmarks.add(new Benchmark("LibraryTableModel.rebuild") {
+            LibraryTableModel model;
+
+            @Override
+            int run(Fixture fixture) {
+                model = new LibraryTableModel(fixture.library);
+                sink = model.getRowCount();
+                return 1;
+            }
+
+            @Override
+            void tearDown(Fixture fixture) {
+                fixture.library.removeLibraryListener(model);
+            }
+        });
+        //single-row refreshes after edits, including the hop to the EDT
+        benchmarks.add(new Benchmark("LibraryTableModel.refreshRow") {
+            LibraryTableModel model;
+            Item[] edited;
+
+            @Override
+            void setUp(Fixture fixture) {
+                model = new LibraryTableModel(fixture.library);
+                String[] titles = randomTitles(fixture, Math.min(fixture.size, MAX_MUTATIONS));
+                edited = new Item[titles.length];
+                for (int i = 0; i < titles.length; i++) {
+                    edited[i] = fixture.library.getItemsByTitle(titles[i]).get(0);
+                }
+            }
+
+            @Override
+            int run(Fixture fixture) throws Exception {
+                for (Item item : edited) {
+                    model.itemUpdated(item);
+                }
+                SwingUtilities.invokeAndWait(() -> sink = model.getRowCount());
+                return edited.length;
+            }
+
+            @Override
+            void tearDown(Fixture fixture) {
+                fixture.library.removeLibraryListener(model);
+            }
+        });
+        return benchmarks;
+    }
+
+    private static String[] randomTitles(Fixture fixture, int count) {
+        String[] titles = new String[count];
+        for (int i = 0; i < count; i++) {
+            titles[i] = fixture.randomTitle();
+        }
+        return titles;
+    }
+
+    private static class Result {
+        final String benchmark;
+        final int size;
+        final double[] nsPerOp;
+
+        Result(String benchmark, int size, double[] nsPerOp) {
+            this.benchmark = benchmark;
+            this.size = size;
+            this.nsPerOp = nsPerOp;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double value : nsPerOp) {
+                sum += value;
+            }
+            return sum / nsPerOp.length;
+        }
+
+        //half-width of a 99.9% confidence interval, normal approximation
+        double error() {
+            if (nsPerOp.length < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double value : nsPerOp) {
+                squares += (value - mean) * (value - mean);
+            }
+            return 3.291 * Math.sqrt(squares / (nsPerOp.length - 1)) / Math.sqrt(nsPerOp.length);
+        }
+    }
+
+    private static Result measure(Benchmark benchmark, Fixture fixture, int warmup, int iterations) throws Exception {
+        double[] nsPerOp = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            System.gc();
+            long elapsed = 0;
+            long ops = 0;
+            do {
+                benchmark.setUp(fixture);
+                long start = System.nanoTime();
+                ops += benchmark.run(fixture);
+                elapsed += System.nanoTime() - start;
+                benchmark.tearDown(fixture);
+            } while (elapsed < MIN_ITERATION_NANOS);
+            if (i >= 0) {
+                nsPerOp[i] = (double) elapsed / ops;
+            }
+        }
+        return new Result(benchmark.name, fixture.size, nsPerOp);
+    }
+
+    private static void writeReport(List<Result> results, Path out, int warmup, int iterations) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(out)) {
+            writer.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                StringBuilder json = new StringBuilder();
+                json.append("  {\"benchmark\":");
+                LibraryServer.appendString(json, result.benchmark);
+                json.append(",\"mode\":\"avgt\",\"warmupIterations\":").append(warmup)
+                        .append(",\"measurementIterations\":").append(iterations)
+                        .append(",\"params\":{\"size\":\"").append(result.size).append("\"}")
+                        .append(",\"primaryMetric\":{\"score\":").append(number(result.mean()))
+                        .append(",\"scoreError\":").append(number(result.error()))
+                        .append(",\"scoreUnit\":\"ns/op\",\"rawData\":[[");
+                for (int j = 0; j < result.nsPerOp.length; j++) {
+                    json.append(j > 0 ? "," : "").append(number(result.nsPerOp[j]));
+                }
+                json.append("]]}}").append(i < results.size() - 1 ? ",\n" : "\n");
+                writer.write(json.toString());
+            }
+            writer.write("]\n");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = {1000, 10000, 100000, 1000000};
+        Pattern filter = Pattern.compile(".*");
+        int warmup = 3;
+        int iterations = 5;
+        Path out = Paths.get("benchmark.json");
+        for (String arg : args) {
+            if (arg.startsWith("--sizes=")) {
+                sizes = Arrays.stream(arg.substring("--sizes=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--benchmarks=")) {
+                filter = Pattern.compile(arg.substring("--benchmarks=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--out=")) {
+                out = Paths.get(arg.substring("--out=".length()));
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-34s %10s %16s %14s%n", "Benchmark", "size", "ns/op", "error");
+        for (int size : sizes) {
+            Fixture fixture = new Fixture(size);
+            try {
+                for (Benchmark benchmark : benchmarks()) {
+                    if (!filter.matcher(benchmark.name).find()) {
+                        continue;
+                    }
+                    Result result = measure(benchmark, fixture, warmup, iterations);
+                    results.add(result);
+                    System.out.printf(Locale.ROOT, "%-34s %10d %16.1f %14.1f%n", result.benchmark, size, result.mean(), result.error());
+                }
+            } finally {
+                fixture.close();
+            }
+        }
+        writeReport(results, out, warmup, iterations);
+        System.out.println("Report written to " + out.toAbsolutePath());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,204 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+//regression check that Library's id and title indexes never drift from its
+//item list. Runs random adds, deletes, renames and bulk operations against a
+//plain map kept alongside and compares the two after every step. Run with
+//  java test.LibraryIndexCheck [steps] [seed]
+//exits with status 1 on the first difference
+class LibraryIndexCheck {
+    private static final String[] TITLES = {"Dune", "Emma", "Ulysses", "Beloved", "Hamlet", "Ivanhoe", "Walden", "Persuasion"};
+
+    private final Library library;
+    private final Random random;
+    //what the library should hold, by id
+    private final Map<Integer, String> expected;
+
+    LibraryIndexCheck(Library library, long seed) {
+        this.library = library;
+        this.random = new Random(seed);
+        this.expected = new HashMap<>();
+    }
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        try {
+            new LibraryIndexCheck(new Library(), seed).run(steps);
+            new LibraryIndexCheck(new Library(new ColumnarItemStore()), seed).run(steps);
+        } catch (AssertionError e) {
+            System.err.println("Index check failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Index check passed, " + steps + " steps per store");
+    }
+
+    void run(int steps) {
+        for (int step = 0; step < steps; step++) {
+            String what = step();
+            verify(step, what);
+        }
+    }
+
+    //one random operation, returns what it did for the failure message
+    private String step() {
+        int choice = random.nextInt(10);
+        String title = randomTitle();
+        switch (choice) {
+            case 0:
+            case 1: {
+                Item item = random.nextBoolean() ? new Book(title, "Author", 1, 100, 2000) : new Item(title, 2);
+                check(library.addItem(item), "add of a new id refused");
+                expected.put(item.getId(), title);
+                return "add " + item.getId() + " " + title;
+            }
+            case 2: {
+                boolean deleted = library.deleteItem(title);
+                Integer id = anyIdWithTitle(title);
+                check(deleted == (id != null), "delete by title " + title + " returned " + deleted);
+                if (deleted) {
+                    //which of the matches goes is up to the library, find it
+                    for (Integer candidate : new ArrayList<>(expected.keySet())) {
+                        if (expected.get(candidate).equals(title) && library.getItemById(candidate) == null) {
+                            expected.remove(candidate);
+                            break;
+                        }
+                    }
+                }
+                return "delete " + title;
+            }
+            case 3: {
+                Integer id = randomId();
+                if (id == null) {
+                    return "nothing to delete";
+                }
+                check(library.deleteItemById(id), "delete of id " + id + " refused");
+                expected.remove(id);
+                return "delete id " + id;
+            }
+            case 4: {
+                Integer id = randomId();
+                if (id == null || !(library.getItemById(id) instanceof Book)) {
+                    return "nothing to rename";
+                }
+                ((Book) library.getItemById(id)).setTitle(title);
+                expected.put(id, title);
+                return "setTitle " + id + " " + title;
+            }
+            case 5: {
+                Integer id = randomId();
+                if (id == null || !(library.getItemById(id) instanceof Book)) {
+                    return "nothing to update";
+                }
+                Book book = (Book) library.getItemById(id);
+                check(library.updateBook(book, title, "Other", 200, 1990), "update of id " + id + " refused");
+                expected.put(id, title);
+                return "updateBook " + id + " " + title;
+            }
+            case 6: {
+                List<Item> batch = new ArrayList<>();
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    batch.add(new Book(randomTitle(), "Author", 1, 100, 2000));
+                }
+                check(library.addAll(batch) == batch.size(), "addAll skipped new ids");
+                for (Item item : batch) {
+                    expected.put(item.getId(), item.getTitle());
+                }
+                return "addAll " + batch.size();
+            }
+            case 7: {
+                int removed = library.deleteByTitles(Collections.singleton(title));
+                int matches = 0;
+                for (Integer id : new ArrayList<>(expected.keySet())) {
+                    if (expected.get(id).equals(title)) {
+                        expected.remove(id);
+                        matches++;
+                    }
+                }
+                check(removed == matches, "deleteByTitles " + title + " removed " + removed + " of " + matches);
+                return "deleteByTitles " + title;
+            }
+            case 8: {
+                String from = title;
+                String to = randomTitle();
+                library.updateAll(book -> book.getTitle().equals(from), book -> book.setTitle(to));
+                for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+                    if (entry.getValue().equals(from) && library.getItemById(entry.getKey()) instanceof Book) {
+                        entry.setValue(to);
+                    }
+                }
+                return "updateAll " + from + " -> " + to;
+            }
+            default: {
+                int parity = random.nextInt(2);
+                library.removeIf(item -> item.getId() % 7 == parity);
+                expected.keySet().removeIf(id -> id % 7 == parity);
+                return "removeIf id % 7 == " + parity;
+            }
+        }
+    }
+
+    private void verify(int step, String what) {
+        String at = " after step " + step + " (" + what + ")";
+        List<Item> items = library.getItems();
+        check(items.size() == expected.size() && library.size() == expected.size(),
+                "list holds " + items.size() + ", size() says " + library.size() + ", expected " + expected.size() + at);
+        Set<Integer> seen = new HashSet<>();
+        for (Item item : items) {
+            check(seen.add(item.getId()), "id " + item.getId() + " listed twice" + at);
+            check(item.getTitle().equals(expected.get(item.getId())), "id " + item.getId() + " is " + item.getTitle() + at);
+            check(library.getItemById(item.getId()) != null, "id " + item.getId() + " listed but not found by id" + at);
+        }
+        //every title bucket holds exactly the listed items with that title
+        int indexed = 0;
+        for (String title : TITLES) {
+            Set<Integer> inBucket = new HashSet<>();
+            for (Item item : library.getItemsByTitle(title)) {
+                check(item.getTitle().equals(title), "id " + item.getId() + " titled " + item.getTitle() + " found under " + title + at);
+                check(inBucket.add(item.getId()), "id " + item.getId() + " twice under " + title + at);
+            }
+            for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+                if (entry.getValue().equals(title)) {
+                    check(inBucket.contains(entry.getKey()), "id " + entry.getKey() + " missing under " + title + at);
+                }
+            }
+            indexed += inBucket.size();
+        }
+        check(indexed == expected.size(), "title index holds " + indexed + " ids, expected " + expected.size() + at);
+    }
+
+    private String randomTitle() {
+        return TITLES[random.nextInt(TITLES.length)];
+    }
+
+    private Integer randomId() {
+        if (expected.isEmpty()) {
+            return null;
+        }
+        List<Integer> ids = new ArrayList<>(expected.keySet());
+        return ids.get(random.nextInt(ids.size()));
+    }
+
+    private Integer anyIdWithTitle(String title) {
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            if (entry.getValue().equals(title)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package test;
+
+import java.util.List;
+
+//notified after each change to a Library, from the thread that made it.
+//add/remove/update callbacks run while the item's monitor is held, so they
+//arrive in the same order the changes were applied to that item.
+//bulk operations report all their items in one call, made while every
+//monitor is held; listeners that can apply a batch at once override these
+interface LibraryListener {
+    default void itemsAdded(List<Item> items) {
+        for (Item item : items) {
+            itemAdded(item);
+        }
+    }
+
+    default void itemsRemoved(List<Item> items) {
+        for (Item item : items) {
+            itemRemoved(item);
+        }
+    }
+
+    default void itemsUpdated(List<Item> items) {
+        for (Item item : items) {
+            itemUpdated(item);
+        }
+    }
+
+    void itemAdded(Item item);
+
+    void itemRemoved(Item item);
+
+    void itemUpdated(Item item);
+
+    void itemViewed(Item item, long viewCount);
+}
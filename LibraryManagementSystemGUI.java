@@ -1,252 +1,126 @@
 package test;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.List;
 
-class Item {
-    private static int nextId = 1;
-
-    protected int id;
-    protected String title;
-    protected int type;
-
-    public Item(String title, int type) {
-        this.id = nextId++;
-        this.title = title;
-        this.type = type;
-    }
-
-    public int getId() {
-        return id;
-    }
-
-    public String getTitle() {
-        return title;
-    }
-
-    public int getType() {
-        return type;
-    }
-}
-
-class Book extends Item {
-    private String author;
-    private int pageCount;
-    private int year;
-    private int popularityCount;
-
-    public Book(String title, String author, int type, int pageCount, int year) {
-        super(title, type);
-        this.author = author;
-        this.pageCount = pageCount;
-        this.year = year;
-        this.popularityCount = 0;
-    }
-
-    public int getPopularityCount() {
-        return popularityCount;
-    }
-
-    public void incrementPopularityCount() {
-        popularityCount++;
-    }
-    
-    public String getAuthor() {
-        return author;
-    }
-
-    public int getPageCount() {
-        return pageCount;
-    }
-
-    public int getYear() {
-        return year;
-    }
-    public void setTitle(String title) {
-    this.title = title;
-    }
-
-    public void setAuthor(String author) {
-        this.author = author;
-    }
-
-    public void setPageCount(int pageCount) {
-        this.pageCount = pageCount;
-    }
-
-    public void setYear(int year) {
-        this.year = year;
-    }
-}
-
-class Library {
-    private List<Item> items;
-    private Map<String, Integer> popularityMap;
-
-    public Library() {
-        items = new ArrayList<>();
-        popularityMap = new HashMap<>();
-    }
-
-    public boolean addItem(Item item) {
-        return items.add(item);
-    }
-
-    public boolean deleteItem(String title) {
-        for (Item item : items) {
-            if (item.getTitle().equals(title)) {
-                return items.remove(item);
-            }
-        }
-        return false;
-    }
-
-    public List<Item> getAvailableItems() {
-        return items;
-    }
-    
-    public List<Item> getItems() {
-        return items;
-    }
-    
-    public int getBookPageCount(String title) {
-        for (Item item : items) {
-            if (item instanceof Book && item.getTitle().equals(title)) {
-                return ((Book) item).getPageCount();
-            }
-        }
-        return -1; 
-    }
-
-    public int getBookYear(String title) {
-        for (Item item : items) {
-            if (item instanceof Book && item.getTitle().equals(title)) {
-                return ((Book) item).getYear();
-            }
-        }
-        return -1; 
-    }
+class LibraryManagementSystemGUI {
+    private Library library;
+    private LibraryTableModel tableModel;
+    private JFrame frame;
+    private JTable table;
+    private ItemJournal journal;
+    private ItemStore store;
+    private SearchIndex searchIndex;
+    private CatalogueAnalytics analytics;
+    //null unless items.txt is shared with other instances
+    private ItemFileSync fileSync;
+    private DefaultListModel<Item> resultsModel;
+    private JProgressBar loadProgress;
+    private JLabel statusLabel;
+    //buttons that create items, enabled once the load has reserved the stored ids
+    private List<JButton> createButtons;
+    //ms from process start, -1 until it happens; EDT only
+    private long firstPaintMillis = -1;
+    private long firstItemsMillis = -1;
 
-    public void setBookPageCount(String title, int pageCount) {
-        for (Item item : items) {
-            if (item instanceof Book && item.getTitle().equals(title)) {
-                ((Book) item).setPageCount(pageCount);
-            }
-        }
+    public LibraryManagementSystemGUI() {
+        this(new HeapItemStore());
     }
 
-    public void setBookYear(String title, int year) {
-        for (Item item : items) {
-            if (item instanceof Book && item.getTitle().equals(title)) {
-                ((Book) item).setYear(year);
-            }
-        }
+    public LibraryManagementSystemGUI(ItemStore store) {
+        this(store, null);
     }
-    
-    
-    public void viewBook(String title) {
-        if (popularityMap.containsKey(title)) {
-            int currentCount = popularityMap.get(title);
-            popularityMap.put(title, currentCount + 1);
-        } else {
-            popularityMap.put(title, 1);
-        }
 
-        //incrmnt popularity count
-        for (Item item : items) {
-            if (item instanceof Book && item.getTitle().equals(title)) {
-                ((Book) item).incrementPopularityCount();
-                break;
-            }
+    //with a syncFile the catalogue follows that file as other instances change
+    //it, and local changes are merged into it
+    public LibraryManagementSystemGUI(ItemStore store, String syncFile) {
+        this.store = store;
+        library = new Library(store);
+        journal = syncFile != null ? claimJournal() : new ItemJournal("items.snap", "items.log");
+        if (syncFile != null) {
+            fileSync = new ItemFileSync(library, Paths.get(syncFile), journal.sibling(".synced"));
         }
-    }
-
-    public int getBookPopularityCount(String title) {
-        return popularityMap.getOrDefault(title, 0);
-    }
-    
-    
-}
+        analytics = new CatalogueAnalytics(library);
 
-class FileHandler {
-    public List<Item> loadItemsFromFile(String filename) {
-        List<Item> items = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 3) {
-                    int id = Integer.parseInt(parts[0].trim());
-                    String title = parts[1].trim();
-                    int type = Integer.parseInt(parts[2].trim());
-                    Item item = new Item(title, type);
-                    items.add(item);
+        //the window comes up empty straight away and the catalogue streams in
+        //behind it, see loadCatalogue
+        frame = new JFrame("Library Management System");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setContentPane(new JPanel() {
+            @Override
+            public void paint(Graphics g) {
+                super.paint(g);
+                if (firstPaintMillis < 0) {
+                    firstPaintMillis = millisSinceStart();
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Error loading items from file: " + e.getMessage());
-        }
-        return items;
-    }
-
-    public void saveItemsToFile(List<Item> items, String filename) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            for (Item item : items) {
-                String line;
-                if (item instanceof Book) {
-                    Book book = (Book) item;
-                    line = book.getId() + ", " + book.getTitle() + ", " + book.getAuthor() + ", "
-                            + book.getPageCount() + ", " + book.getYear() + ", " + book.getType();
-                } else {
-                    line = item.getId() + ", " + item.getTitle() + ", " + item.getType();
+        });
+        frame.setLayout(new BorderLayout());
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (fileSync != null) {
+                    fileSync.close();
+                }
+                journal.close();
+                if (store instanceof OffHeapItemStore) {
+                    ((OffHeapItemStore) store).force();
                 }
-                writer.write(line);
-                writer.newLine();
             }
-        } catch (IOException e) {
-            System.err.println("Error saving items to file: " + e.getMessage());
-        }
-    }
-}
-
-class LibraryManagementSystemGUI {
-    private Library library;
-    private DefaultTableModel tableModel;
-    private JFrame frame;
-    private JTable table;
-
-    public LibraryManagementSystemGUI() {
-        library = new Library();
-        FileHandler fileHandler = new FileHandler();
-        List<Item> items = fileHandler.loadItemsFromFile("items.txt");
-        library.getItems().addAll(items);
-
-        frame = new JFrame("Library Management System");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setLayout(new BorderLayout());
+        });
 
-        tableModel = new DefaultTableModel();
+        tableModel = new LibraryTableModel(library);
         table = new JTable(tableModel);
         JScrollPane scrollPane = new JScrollPane(table);
         frame.add(scrollPane, BorderLayout.CENTER);
 
+        searchIndex = new SearchIndex(library);
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(createSearchPanel(), BorderLayout.CENTER);
+        topPanel.add(createFilterPanel(), BorderLayout.SOUTH);
+        frame.add(topPanel, BorderLayout.NORTH);
+
         JPanel buttonPanel = new JPanel();
         JButton addButton = new JButton("Add Item");
         JButton editButton = new JButton("Edit Item");
         JButton deleteButton = new JButton("Delete Item");
         JButton viewPopularityButton = new JButton("View Popularity");
+        JButton chartButton = new JButton("Popularity Chart");
+        JButton importButton = new JButton("Import Items");
+        JButton statisticsButton = new JButton("Statistics");
         buttonPanel.add(addButton);
         buttonPanel.add(editButton);
         buttonPanel.add(deleteButton);
         buttonPanel.add(viewPopularityButton);
-        frame.add(buttonPanel, BorderLayout.SOUTH);
+        buttonPanel.add(chartButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(statisticsButton);
+        createButtons = Arrays.asList(addButton, importButton);
+        for (JButton button : createButtons) {
+            button.setEnabled(false);
+        }
+        loadProgress = new JProgressBar(0, 100);
+        loadProgress.setStringPainted(true);
+        statusLabel = new JLabel("Loading catalogue...");
+        JPanel statusPanel = new JPanel(new BorderLayout(5, 0));
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(loadProgress, BorderLayout.EAST);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        southPanel.add(statusPanel, BorderLayout.SOUTH);
+        frame.add(southPanel, BorderLayout.SOUTH);
 
         addButton.addActionListener(new ActionListener() {
             @Override
@@ -255,23 +129,14 @@ class LibraryManagementSystemGUI {
             }
         });
 
-    String[] columnNames = {"ID", "Title", "Author", "Page Count", "Year"};
-    tableModel.setColumnIdentifiers(columnNames);
-    
-    updateTable();
-        
         editButton.addActionListener(new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
-            int selectedRow = table.getSelectedRow();
-            if (selectedRow >= 0 && selectedRow < library.getAvailableItems().size()) {
-                Item selectedItem = library.getAvailableItems().get(selectedRow);
-                if (selectedItem instanceof Book) {
-                    Book selectedBook = (Book) selectedItem;
-                    showEditItemDialog(selectedBook);
-                } else {
-                    JOptionPane.showMessageDialog(frame, "Cannot edit non-book items.", "Error", JOptionPane.ERROR_MESSAGE);
-                }
+            Book selectedBook = tableModel.getBookAt(table.getSelectedRow());
+            if (table.getSelectedRowCount() > 1) {
+                showBulkEditDialog(getSelectedIds());
+            } else if (selectedBook != null) {
+                showEditItemDialog(selectedBook);
             } else {
                 JOptionPane.showMessageDialog(frame, "Please select a book to edit.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -281,31 +146,223 @@ class LibraryManagementSystemGUI {
         deleteButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                showDeleteItemDialog();
+                //selected rows are deleted by id, with nothing selected ask for a title
+                Book selectedBook = tableModel.getBookAt(table.getSelectedRow());
+                if (table.getSelectedRowCount() > 1) {
+                    deleteSelectedBooks();
+                } else if (selectedBook != null) {
+                    deleteSelectedBook(selectedBook);
+                } else {
+                    showDeleteItemDialog();
+                }
             }
         });
 
         viewPopularityButton.addActionListener(new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
-            int selectedRow = table.getSelectedRow();
-            if (selectedRow >= 0 && selectedRow < library.getAvailableItems().size()) {
-                Item selectedItem = library.getAvailableItems().get(selectedRow);
-                if (selectedItem instanceof Book) {
-                    Book selectedBook = (Book) selectedItem;
-                    library.viewBook(selectedBook.getTitle()); //incrmnt popularity count
-                    updateTable();
-                } else {
-                    JOptionPane.showMessageDialog(frame, "Cannot view non-book items.", "Error", JOptionPane.ERROR_MESSAGE);
-                }
+            Book selectedBook = tableModel.getBookAt(table.getSelectedRow());
+            if (selectedBook != null) {
+                library.viewItem(selectedBook.getId()); //incrmnt popularity count
             } else {
                 JOptionPane.showMessageDialog(frame, "Please select a book to view.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
         });
 
+        chartButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showPopularityChart();
+            }
+        });
+
+        importButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                importItems();
+            }
+        });
+
+        statisticsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showStatistics();
+            }
+        });
+
         frame.pack();
         frame.setVisible(true);
+        loadCatalogue();
+    }
+
+    //instances that share a file are often started in one directory, so each
+    //takes the first journal no other instance holds. Failing that, opening
+    //the default one reports why
+    private static ItemJournal claimJournal() {
+        try {
+            return ItemJournal.claimFree("items");
+        } catch (IOException e) {
+            System.err.println("Error claiming a journal: " + e.getMessage());
+            return new ItemJournal("items.snap", "items.log");
+        }
+    }
+
+    //replays the journal, or imports items.txt on the first run, off the EDT.
+    //The table and search fill in chunk by chunk and can be used meanwhile;
+    //changes made during the load are journaled once it finishes. Adding
+    //waits for the first chunk, by which time every stored id is reserved
+    private void loadCatalogue() {
+        long started = System.nanoTime();
+        new SwingWorker<Void, int[]>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                journal.open(library, "items.txt", (itemsLoaded, fraction) -> {
+                    publish(new int[]{itemsLoaded, (int) (fraction * 100)});
+                });
+                //only what other instances changed since the journal is applied
+                if (fileSync != null) {
+                    fileSync.start();
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<int[]> chunks) {
+                int[] latest = chunks.get(chunks.size() - 1);
+                if (firstItemsMillis < 0 && latest[0] > 0) {
+                    firstItemsMillis = millisSinceStart();
+                }
+                enableCreateButtons();
+                loadProgress.setValue(latest[1]);
+                statusLabel.setText("Loading catalogue... " + latest[0] + " items");
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (Exception ex) {
+                    System.err.println("Error opening journal: " + ex.getMessage());
+                }
+                enableCreateButtons();
+                loadProgress.setVisible(false);
+                String report = library.size() + " items loaded in " + (System.nanoTime() - started) / 1_000_000
+                        + " ms (first paint " + firstPaintMillis + " ms, first items " + firstItemsMillis + " ms after start)";
+                statusLabel.setText(report);
+                System.out.println(report);
+            }
+        }.execute();
+    }
+
+    private void enableCreateButtons() {
+        for (JButton button : createButtons) {
+            button.setEnabled(true);
+        }
+    }
+
+    private static long millisSinceStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    //type-ahead search: results update on every keystroke, picking one
+    //selects its row in the table
+    private JPanel createSearchPanel() {
+        JPanel searchPanel = new JPanel(new BorderLayout());
+        JTextField searchField = new JTextField();
+        resultsModel = new DefaultListModel<>();
+        JList<Item> resultsList = new JList<>(resultsModel);
+        resultsList.setVisibleRowCount(5);
+        resultsList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Item item = (Item) value;
+                String text = item instanceof Book ? item.getTitle() + " - " + ((Book) item).getAuthor() : item.getTitle();
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                runSearch();
+            }
+
+            private void runSearch() {
+                resultsModel.clear();
+                resultsModel.addAll(searchIndex.search(searchField.getText(), 50));
+            }
+        });
+
+        resultsList.addListSelectionListener(e -> {
+            Item selected = resultsList.getSelectedValue();
+            if (!e.getValueIsAdjusting() && selected != null) {
+                int row = tableModel.getRowOf(selected.getId());
+                if (row >= 0) {
+                    table.setRowSelectionInterval(row, row);
+                    table.scrollRectToVisible(table.getCellRect(row, 0, true));
+                }
+            }
+        });
+
+        searchPanel.add(new JLabel("Search: "), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        searchPanel.add(new JScrollPane(resultsList), BorderLayout.SOUTH);
+        return searchPanel;
+    }
+
+    //year and page count filters, answered from Library's range indexes into
+    //the same result list the search box uses. Empty bounds are open
+    private JPanel createFilterPanel() {
+        JPanel filterPanel = new JPanel();
+        JTextField fromYearField = new JTextField(4);
+        JTextField toYearField = new JTextField(4);
+        JTextField minPagesField = new JTextField(4);
+        JTextField maxPagesField = new JTextField(4);
+        JButton filterButton = new JButton("Filter");
+
+        filterButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    int fromYear = parseBound(fromYearField, Integer.MIN_VALUE);
+                    int toYear = parseBound(toYearField, Integer.MAX_VALUE);
+                    int minPages = parseBound(minPagesField, Integer.MIN_VALUE);
+                    int maxPages = parseBound(maxPagesField, Integer.MAX_VALUE);
+                    List<Book> books = library.getBooks(fromYear, toYear, minPages, maxPages);
+                    resultsModel.clear();
+                    resultsModel.addAll(books.size() > 500 ? books.subList(0, 500) : books);
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(frame, "Years and page counts must be whole numbers.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        filterPanel.add(new JLabel("Year from:"));
+        filterPanel.add(fromYearField);
+        filterPanel.add(new JLabel("to:"));
+        filterPanel.add(toYearField);
+        filterPanel.add(new JLabel("Pages from:"));
+        filterPanel.add(minPagesField);
+        filterPanel.add(new JLabel("to:"));
+        filterPanel.add(maxPagesField);
+        filterPanel.add(filterButton);
+        return filterPanel;
+    }
+
+    private static int parseBound(JTextField field, int openValue) {
+        String text = field.getText().trim();
+        return text.isEmpty() ? openValue : Integer.parseInt(text);
     }
 
     private void showDeleteItemDialog() {
@@ -317,10 +374,131 @@ class LibraryManagementSystemGUI {
             } else {
                 JOptionPane.showMessageDialog(frame, "Item not found.", "Error", JOptionPane.ERROR_MESSAGE);
             }
-            updateTable();
         }
     }
 
+    private static Item copyWithNewId(Item item) {
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            return new Book(book.getTitle(), book.getAuthor(), book.getType(), book.getPageCount(), book.getYear());
+        }
+        return new Item(item.getTitle(), item.getType());
+    }
+
+    //the selected row goes by id, so of several books with one title the right one is deleted
+    private void deleteSelectedBook(Book book) {
+        int choice = JOptionPane.showConfirmDialog(frame, "Delete \"" + book.getTitle() + "\"?", "Delete Item", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            if (library.deleteItemById(book.getId())) {
+                JOptionPane.showMessageDialog(frame, "Item deleted successfully!");
+            } else {
+                JOptionPane.showMessageDialog(frame, "Item not found.", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private Set<Integer> getSelectedIds() {
+        Set<Integer> ids = new HashSet<>();
+        for (int row : table.getSelectedRows()) {
+            Book book = tableModel.getBookAt(row);
+            if (book != null) {
+                ids.add(book.getId());
+            }
+        }
+        return ids;
+    }
+
+    private void deleteSelectedBooks() {
+        Set<Integer> ids = getSelectedIds();
+        int choice = JOptionPane.showConfirmDialog(frame, "Delete " + ids.size() + " selected items?", "Delete Items", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            int deleted = library.removeIf(item -> ids.contains(item.getId()));
+            JOptionPane.showMessageDialog(frame, deleted + " items deleted successfully!");
+        }
+    }
+
+    //sets the filled-in fields on every selected book, blank fields are left alone
+    private void showBulkEditDialog(Set<Integer> ids) {
+        JFrame editFrame = new JFrame("Edit " + ids.size() + " Items");
+        editFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        editFrame.setLayout(new GridLayout(4, 2));
+
+        JTextField authorField = new JTextField();
+        JTextField pageCountField = new JTextField();
+        JTextField yearField = new JTextField();
+
+        JButton saveButton = new JButton("Save");
+        saveButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String author = authorField.getText().trim();
+                Integer pageCount;
+                Integer year;
+                try {
+                    pageCount = pageCountField.getText().trim().isEmpty() ? null : Integer.valueOf(pageCountField.getText().trim());
+                    year = yearField.getText().trim().isEmpty() ? null : Integer.valueOf(yearField.getText().trim());
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(editFrame, "Page count and year must be numbers.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                int edited = library.updateAll(book -> ids.contains(book.getId()), book -> {
+                    if (!author.isEmpty()) {
+                        book.setAuthor(author);
+                    }
+                    if (pageCount != null) {
+                        book.setPageCount(pageCount);
+                    }
+                    if (year != null) {
+                        book.setYear(year);
+                    }
+                });
+                JOptionPane.showMessageDialog(editFrame, edited + " items edited successfully!");
+                editFrame.dispose();
+            }
+        });
+
+        editFrame.add(new JLabel("Author:"));
+        editFrame.add(authorField);
+        editFrame.add(new JLabel("Page Count:"));
+        editFrame.add(pageCountField);
+        editFrame.add(new JLabel("Year:"));
+        editFrame.add(yearField);
+        editFrame.add(saveButton);
+
+        editFrame.pack();
+        editFrame.setVisible(true);
+    }
+
+    //parses and adds the file off the EDT; the table hears about it as one batch
+    private void importItems() {
+        JFileChooser chooser = new JFileChooser(".");
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String filename = chooser.getSelectedFile().getPath();
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                FileHandler fileHandler = new FileHandler();
+                //files keep their ids; one taken here belongs to another item
+                List<Item> items = new ArrayList<>();
+                for (Item item : fileHandler.loadItemsFromFile(filename)) {
+                    items.add(library.getItemById(item.getId()) == null ? item : copyWithNewId(item));
+                }
+                return library.addAll(items);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    JOptionPane.showMessageDialog(frame, get() + " items imported successfully!");
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "Error importing items: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
     private void showAddItemDialog() {
         JFrame addItemFrame = new JFrame("Add Item");
         addItemFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
@@ -341,11 +519,15 @@ class LibraryManagementSystemGUI {
                 String title = titleField.getText();
                 String author = authorField.getText();
                 if (!title.isEmpty() && !author.isEmpty()) {
-                    boolean itemAdded = library.addItem(new Book(title, author, 0, 0, 0));
+                    boolean itemAdded;
+                    try {
+                        itemAdded = library.addItem(new Book(title, author, 0, 0, 0));
+                    } catch (UncheckedIOException ex) {
+                        //no id could be reserved for it
+                        itemAdded = false;
+                    }
                     if (itemAdded) {
                         JOptionPane.showMessageDialog(frame, "Item added successfully!");
-                        updateTable();
-                        saveItemsToFile(); 
                         addItemFrame.dispose();
                     } else {
                         JOptionPane.showMessageDialog(frame, "Failed to add item.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -389,14 +571,9 @@ class LibraryManagementSystemGUI {
                     int newPageCount = Integer.parseInt(pageCountField.getText());
                     int newYear = Integer.parseInt(yearField.getText());
 
-                    book.setTitle(newTitle);
-                    book.setAuthor(newAuthor);
-                    book.setPageCount(newPageCount);
-                    book.setYear(newYear);
+                    library.updateBook(book, newTitle, newAuthor, newPageCount, newYear);
 
                     JOptionPane.showMessageDialog(editFrame, "Item edited successfully!");
-                    updateTable();
-                    saveItemsToFile();
                     editFrame.dispose();
                 }
             });
@@ -422,42 +599,141 @@ class LibraryManagementSystemGUI {
         popularityFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         popularityFrame.setLayout(new BorderLayout());
 
-        
-        JPanel chartPanel = new JPanel() {
+        int windowMinutes = library.getPopularity().getTrendingTracker().getWindowMinutes();
+        JComboBox<String> periodBox = new JComboBox<>(new String[]{"All time", "Last " + windowMinutes + " minutes", "Last 5 minutes"});
+        //draws in the background and stays live as views come in
+        PopularityChart chartPanel = new PopularityChart(library);
+        periodBox.addActionListener(new ActionListener() {
             @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                
+            public void actionPerformed(ActionEvent e) {
+                switch (periodBox.getSelectedIndex()) {
+                    case 1:
+                        chartPanel.setPeriodMinutes(windowMinutes);
+                        break;
+                    case 2:
+                        chartPanel.setPeriodMinutes(5);
+                        break;
+                    default:
+                        chartPanel.setPeriodMinutes(0);
+                }
             }
-        };
+        });
+        popularityFrame.add(periodBox, BorderLayout.NORTH);
         popularityFrame.add(chartPanel, BorderLayout.CENTER);
 
         popularityFrame.setSize(400, 300);
         popularityFrame.setLocationRelativeTo(null); 
-        popularityFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        popularityFrame.setVisible(true);
+    }
+
+    //catalogue statistics, computed off the EDT and refreshed every couple of
+    //seconds while the window is open and the catalogue keeps changing
+    private void showStatistics() {
+        JFrame statisticsFrame = new JFrame("Catalogue Statistics");
+        statisticsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        statisticsFrame.setLayout(new BorderLayout());
+
+        JLabel summaryLabel = new JLabel("Computing statistics...");
+        DefaultTableModel authorsModel = readOnlyModel("Author", "Books", "Views");
+        DefaultTableModel viewedAuthorsModel = readOnlyModel("Author", "Books", "Views");
+        DefaultTableModel decadesModel = readOnlyModel("Decade", "Books", "Views");
+        DefaultTableModel yearsModel = readOnlyModel("Year", "Books");
+        DefaultTableModel pagesModel = readOnlyModel("Pages", "Books");
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Top Authors", new JScrollPane(new JTable(authorsModel)));
+        tabs.addTab("Most Viewed Authors", new JScrollPane(new JTable(viewedAuthorsModel)));
+        tabs.addTab("Decades", new JScrollPane(new JTable(decadesModel)));
+        tabs.addTab("Years", new JScrollPane(new JTable(yearsModel)));
+        tabs.addTab("Page Counts", new JScrollPane(new JTable(pagesModel)));
+        statisticsFrame.add(summaryLabel, BorderLayout.NORTH);
+        statisticsFrame.add(tabs, BorderLayout.CENTER);
+
+        boolean[] refreshing = {false};
+        Runnable refresh = () -> {
+            refreshing[0] = true;
+            long started = System.nanoTime();
+            new SwingWorker<CatalogueStats.Report, Void>() {
+                @Override
+                protected CatalogueStats.Report doInBackground() {
+                    return analytics.refresh(100);
+                }
 
+                @Override
+                protected void done() {
+                    refreshing[0] = false;
+                    CatalogueStats.Report stats;
+                    try {
+                        stats = get();
+                    } catch (Exception ex) {
+                        System.err.println("Error computing statistics: " + ex.getMessage());
+                        return;
+                    }
+                    summaryLabel.setText(String.format("%d items, %d books by %d authors, %d views, %.0f pages on average (%d ms)",
+                            stats.getItemCount(), stats.getBookCount(), stats.getAuthorCount(), stats.getViewCount(),
+                            stats.getAveragePageCount(), (System.nanoTime() - started) / 1_000_000));
+                    authorsModel.setRowCount(0);
+                    for (CatalogueStats.AuthorTotal author : stats.getTopAuthorsByBooks()) {
+                        authorsModel.addRow(new Object[]{author.getAuthor(), author.getBooks(), author.getViews()});
+                    }
+                    viewedAuthorsModel.setRowCount(0);
+                    for (CatalogueStats.AuthorTotal author : stats.getTopAuthorsByViews()) {
+                        viewedAuthorsModel.addRow(new Object[]{author.getAuthor(), author.getBooks(), author.getViews()});
+                    }
+                    decadesModel.setRowCount(0);
+                    stats.forEachDecade((decade, books) -> decadesModel.addRow(new Object[]{decade + "s", books, stats.getDecadeViews(decade)}));
+                    yearsModel.setRowCount(0);
+                    stats.forEachYear((year, books) -> yearsModel.addRow(new Object[]{year, books}));
+                    pagesModel.setRowCount(0);
+                    stats.forEachPageRange((pages, books) -> pagesModel.addRow(new Object[]{pages + "-" + (pages + CatalogueStats.PAGE_BUCKET - 1), books}));
+                }
+            }.execute();
+        };
+        Timer timer = new Timer(2000, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!refreshing[0] && analytics.isDirty()) {
+                    refresh.run();
+                }
+            }
+        });
+        statisticsFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+            }
+        });
+        refresh.run();
+        timer.start();
+
+        statisticsFrame.setSize(560, 420);
+        statisticsFrame.setLocationRelativeTo(null);
+        statisticsFrame.setVisible(true);
     }
 
-    private void updateTable() {
-        tableModel.setRowCount(0);
-        List<Item> items = library.getAvailableItems();
-        for (Item item : items) {
-            if (item instanceof Book) {
-                Book book = (Book) item;
-                Object[] row = { book.getId(), book.getTitle(), book.getAuthor(), book.getPageCount(), book.getYear() };
-                tableModel.addRow(row);
+    private static DefaultTableModel readOnlyModel(String... columns) {
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
             }
-        }
-    }
-    
-    private void saveItemsToFile() {
-        FileHandler fileHandler = new FileHandler();
-        fileHandler.saveItemsToFile(library.getItems(), "items.txt");
+        };
     }
 
+    //--sync shares items.txt with other instances, --sync=<file> shares file.
+    //Each syncing instance keeps its own journal, see claimJournal
     public static void main(String[] args) {
+        ItemStore store = ItemStore.fromArgs(args);
+        String syncFile = null;
+        for (String arg : args) {
+            if (arg.equals("--sync")) {
+                syncFile = "items.txt";
+            } else if (arg.startsWith("--sync=")) {
+                syncFile = arg.substring("--sync=".length());
+            }
+        }
+        String shared = syncFile;
         SwingUtilities.invokeLater(() -> {
-            new LibraryManagementSystemGUI();
+            new LibraryManagementSystemGUI(store, shared);
         });
     }
 }
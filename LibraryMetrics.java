@@ -0,0 +1,126 @@
+package test;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+//latency and call counts for every Library and FileHandler operation, one per
+//public method (overloads included) so no two calls share a histogram. Each
+//operation is an MBean under test.library:type=Operation. On by default;
+//-Dlibrary.metrics=false turns recording off, -Dlibrary.metrics.sample=<n>
+//times one call in n (a power of two, default 16) and -Dlibrary.metrics.dump=<seconds>
+//prints a table to stderr at that period
+final class LibraryMetrics {
+    private static final List<OperationMetrics> OPERATIONS = new ArrayList<>();
+    private static volatile boolean enabled = !"false".equals(System.getProperty("library.metrics"));
+    //rounded down to a power of two so the sampling test is a mask
+    static final int SAMPLE = Integer.highestOneBit(Math.max(1, Integer.getInteger("library.metrics.sample", 16)));
+
+    static final OperationMetrics ADD_ITEM = register("Library.addItem");
+    static final OperationMetrics ADD_ALL = register("Library.addAll");
+    static final OperationMetrics DELETE_ITEM = register("Library.deleteItem");
+    static final OperationMetrics DELETE_ITEM_BY_ID = register("Library.deleteItemById");
+    static final OperationMetrics DELETE_BY_TITLES = register("Library.deleteByTitles");
+    static final OperationMetrics REMOVE_IF = register("Library.removeIf");
+    static final OperationMetrics UPDATE_BOOK = register("Library.updateBook");
+    static final OperationMetrics UPDATE_ALL = register("Library.updateAll");
+    static final OperationMetrics GET_ITEMS = register("Library.getItems");
+    static final OperationMetrics GET_ITEMS_BY_TITLE = register("Library.getItemsByTitle");
+    static final OperationMetrics GET_BOOK_PAGE_COUNT = register("Library.getBookPageCount");
+    static final OperationMetrics GET_BOOK_YEAR = register("Library.getBookYear");
+    static final OperationMetrics SET_BOOK_PAGE_COUNT = register("Library.setBookPageCount");
+    static final OperationMetrics SET_BOOK_YEAR = register("Library.setBookYear");
+    static final OperationMetrics VIEW_BOOK = register("Library.viewBook");
+    static final OperationMetrics VIEW_ITEM = register("Library.viewItem");
+    static final OperationMetrics GET_BOOK_POPULARITY_COUNT = register("Library.getBookPopularityCount");
+    static final OperationMetrics GET_RECENT_POPULARITY_COUNT = register("Library.getBookPopularityCount(minutes)");
+    static final OperationMetrics GET_TRENDING_BOOKS = register("Library.getTrendingBooks");
+    static final OperationMetrics GET_BOOKS_BY_YEAR = register("Library.getBooksByYear");
+    static final OperationMetrics GET_BOOKS_BY_PAGE_COUNT = register("Library.getBooksByPageCount");
+    static final OperationMetrics GET_BOOKS = register("Library.getBooks");
+    static final OperationMetrics LOAD_ITEMS = register("FileHandler.loadItemsFromFile");
+    static final OperationMetrics LOAD_ITEM_CHUNKS = register("FileHandler.loadItemsFromFile(chunks)");
+    static final OperationMetrics SAVE_ITEMS = register("FileHandler.saveItemsToFile");
+    static final OperationMetrics REFRESH_STATISTICS = register("CatalogueAnalytics.refresh");
+
+    static {
+        registerMBeans();
+        long dumpSeconds = Long.getLong("library.metrics.dump", 0);
+        if (dumpSeconds > 0) {
+            startDump(System.err, dumpSeconds);
+        }
+    }
+
+    private LibraryMetrics() {
+    }
+
+    private static OperationMetrics register(String name) {
+        OperationMetrics metrics = new OperationMetrics(name);
+        OPERATIONS.add(metrics);
+        return metrics;
+    }
+
+    private static void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics metrics : OPERATIONS) {
+            try {
+                ObjectName name = new ObjectName("test.library:type=Operation,name=" + metrics.getName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            } catch (JMException e) {
+                System.err.println("Error registering metrics MBean: " + e.getMessage());
+            }
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    static List<OperationMetrics> getOperations() {
+        return Collections.unmodifiableList(OPERATIONS);
+    }
+
+    //operations that have run at least once, one line each, times in microseconds
+    static String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-40s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (OperationMetrics metrics : OPERATIONS) {
+            long count = metrics.getCount();
+            if (count == 0) {
+                continue;
+            }
+            LatencyHistogram.Snapshot snapshot = metrics.snapshot();
+            text.append(String.format(Locale.ROOT, "%-40s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    metrics.getName(), count, snapshot.getMean() / 1000,
+                    snapshot.getPercentile(50) / 1000.0, snapshot.getPercentile(99) / 1000.0,
+                    snapshot.getPercentile(99.9) / 1000.0, snapshot.getMax() / 1000.0));
+        }
+        return text.toString();
+    }
+
+    static ScheduledExecutorService startDump(PrintStream out, long periodSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(format()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return dumper;
+    }
+}
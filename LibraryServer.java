@@ -0,0 +1,607 @@
+package test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//headless JSON API over the same Library and journal the GUI uses. Listens on
+//localhost only:
+//  GET    /items?offset=&limit=     items in id order
+//  POST   /items                    add {"title", "author", "pageCount", "year", "type"},
+//                                   an item without author, pageCount or year is not a book
+//  GET    /items/{id}               one item with its view count
+//  PUT    /items/{id}               edit a book, absent fields keep their value
+//  DELETE /items/{id}               delete by id, or DELETE /items?title= by title
+//  POST   /items/{id}/view          record a view, returns the new count
+//  GET    /search?q=&limit=         words match exactly, the last one as a prefix
+//  GET    /books?fromYear=&toYear=&minPages=&maxPages=
+//  GET    /popularity?limit=        most viewed books
+//  GET    /popularity?minutes=      most viewed in the last minutes, capped at the trending window
+class LibraryServer {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10000;
+    private static final int MAX_BODY = 1 << 16;
+
+    private final Library library;
+    private final SearchIndex searchIndex;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LibraryServer(Library library, int port) throws IOException {
+        this.library = library;
+        this.searchIndex = new SearchIndex(library);
+        //without TCP_NODELAY the separate header and body writes of a keep-alive
+        //response meet delayed ACKs and every request takes ~40 ms. Read once,
+        //when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        //Java 17 has no virtual threads, so requests run on a pool sized for
+        //short CPU-bound handlers; the queue absorbs bursts of connections
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            switch (path[0]) {
+                case "items":
+                    if (path.length == 1) {
+                        handleItems(exchange, method, query);
+                    } else if (path.length == 2) {
+                        handleItem(exchange, method, parseId(path[1]));
+                    } else if (path.length == 3 && path[2].equals("view") && method.equals("POST")) {
+                        handleView(exchange, parseId(path[1]));
+                    } else {
+                        sendError(exchange, 404, "Not found");
+                    }
+                    break;
+                case "search":
+                    if (requireGet(exchange, method)) {
+                        String q = query.getOrDefault("q", "");
+                        sendItems(exchange, searchIndex.search(q, limitParam(query, DEFAULT_LIMIT)));
+                    }
+                    break;
+                case "books":
+                    if (requireGet(exchange, method)) {
+                        List<Book> books = library.getBooks(intParam(query, "fromYear", Integer.MIN_VALUE),
+                                intParam(query, "toYear", Integer.MAX_VALUE),
+                                intParam(query, "minPages", Integer.MIN_VALUE),
+                                intParam(query, "maxPages", Integer.MAX_VALUE));
+                        int limit = limitParam(query, DEFAULT_LIMIT);
+                        sendItems(exchange, books.subList(0, Math.min(limit, books.size())));
+                    }
+                    break;
+                case "popularity":
+                    if (requireGet(exchange, method)) {
+                        handlePopularity(exchange, limitParam(query, 10), intParam(query, "minutes", 0));
+                    }
+                    break;
+                default:
+                    sendError(exchange, 404, "Not found");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+            sendError(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleItems(HttpExchange exchange, String method, Map<String, String> query) throws IOException {
+        switch (method) {
+            case "GET": {
+                int offset = intParam(query, "offset", 0);
+                if (offset < 0) {
+                    throw new IllegalArgumentException("Invalid offset: " + offset);
+                }
+                int limit = limitParam(query, DEFAULT_LIMIT);
+                //a snapshot pages in O(log n) without copying the catalogue
+                List<Item> items = library.snapshot().getItems();
+                int from = Math.min(offset, items.size());
+                sendItems(exchange, items.subList(from, (int) Math.min(items.size(), (long) from + limit)));
+                break;
+            }
+            case "POST": {
+                Map<String, Object> body = readBody(exchange);
+                String title = stringField(body, "title", null);
+                if (title == null || title.isEmpty()) {
+                    throw new IllegalArgumentException("title is required");
+                }
+                int type = intField(body, "type", 0);
+                Item item;
+                if (body.containsKey("author") || body.containsKey("pageCount") || body.containsKey("year")) {
+                    item = new Book(title, stringField(body, "author", ""), type,
+                            intField(body, "pageCount", 0), intField(body, "year", 0));
+                } else {
+                    item = new Item(title, type);
+                }
+                if (library.addItem(item)) {
+                    sendItem(exchange, 201, item);
+                } else {
+                    sendError(exchange, 409, "An item with id " + item.getId() + " already exists");
+                }
+                break;
+            }
+            case "DELETE": {
+                String title = query.get("title");
+                if (title == null) {
+                    throw new IllegalArgumentException("title is required");
+                }
+                if (library.deleteItem(title)) {
+                    send(exchange, 204, null);
+                } else {
+                    sendError(exchange, 404, "No item titled " + title);
+                }
+                break;
+            }
+            default:
+                sendError(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void handleItem(HttpExchange exchange, String method, int id) throws IOException {
+        Item item = library.getItemById(id);
+        if (item == null) {
+            sendError(exchange, 404, "No item with id " + id);
+            return;
+        }
+        switch (method) {
+            case "GET":
+                sendItem(exchange, 200, item);
+                break;
+            case "PUT": {
+                if (!(item instanceof Book)) {
+                    throw new IllegalArgumentException("Only books can be edited");
+                }
+                Book book = (Book) item;
+                Map<String, Object> body = readBody(exchange);
+                String title = stringField(body, "title", book.getTitle());
+                if (title.isEmpty()) {
+                    throw new IllegalArgumentException("title must not be empty");
+                }
+                if (library.updateBook(book, title, stringField(body, "author", book.getAuthor()),
+                        intField(body, "pageCount", book.getPageCount()), intField(body, "year", book.getYear()))) {
+                    sendItem(exchange, 200, library.getItemById(id));
+                } else {
+                    sendError(exchange, 404, "No item with id " + id);
+                }
+                break;
+            }
+            case "DELETE":
+                if (library.deleteItemById(id)) {
+                    send(exchange, 204, null);
+                } else {
+                    sendError(exchange, 404, "No item with id " + id);
+                }
+                break;
+            default:
+                sendError(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void handleView(HttpExchange exchange, int id) throws IOException {
+        if (!(library.getItemById(id) instanceof Book)) {
+            sendError(exchange, 404, "No book with id " + id);
+            return;
+        }
+        library.viewItem(id);
+        StringBuilder json = new StringBuilder(48);
+        json.append("{\"id\":").append(id).append(",\"views\":").append(library.getPopularity().getCount(id)).append('}');
+        send(exchange, 200, json);
+    }
+
+    //minutes of 0 means all time
+    private void handlePopularity(HttpExchange exchange, int limit, int minutes) throws IOException {
+        if (minutes < 0) {
+            throw new IllegalArgumentException("Invalid minutes: " + minutes);
+        }
+        List<TopKTracker.Entry> entries = minutes > 0
+                ? library.getTrendingBooks(limit, minutes)
+                : library.getPopularity().getMostViewed(limit);
+        StringBuilder json = new StringBuilder(64 * limit + 2);
+        json.append('[');
+        for (TopKTracker.Entry entry : entries) {
+            Item item = library.getItemById(entry.getId());
+            if (item == null) {
+                continue;
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(entry.getId()).append(",\"title\":");
+            appendString(json, item.getTitle());
+            json.append(",\"views\":").append(entry.getCount()).append('}');
+        }
+        json.append(']');
+        send(exchange, 200, json);
+    }
+
+    private boolean requireGet(HttpExchange exchange, String method) throws IOException {
+        if (method.equals("GET")) {
+            return true;
+        }
+        sendError(exchange, 405, "Method not allowed");
+        return false;
+    }
+
+    private void sendItem(HttpExchange exchange, int status, Item item) throws IOException {
+        StringBuilder json = new StringBuilder(128);
+        appendItem(json, item);
+        send(exchange, status, json);
+    }
+
+    private void sendItems(HttpExchange exchange, List<? extends Item> items) throws IOException {
+        StringBuilder json = new StringBuilder(112 * items.size() + 2);
+        json.append('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendItem(json, items.get(i));
+        }
+        json.append(']');
+        send(exchange, 200, json);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder(32 + message.length());
+        json.append("{\"error\":");
+        appendString(json, message);
+        json.append('}');
+        send(exchange, status, json);
+    }
+
+    private void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void appendItem(StringBuilder json, Item item) {
+        json.append("{\"id\":").append(item.getId()).append(",\"title\":");
+        appendString(json, item.getTitle());
+        json.append(",\"type\":").append(item.getType());
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            json.append(",\"author\":");
+            appendString(json, book.getAuthor());
+            json.append(",\"pageCount\":").append(book.getPageCount())
+                    .append(",\"year\":").append(book.getYear())
+                    .append(",\"views\":").append(library.getPopularity().getCount(item.getId()));
+        }
+        json.append('}');
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static int parseId(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad item id: " + segment);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int missing) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return missing;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    //the limit parameter, at most MAX_LIMIT
+    private static int limitParam(Map<String, String> query, int missing) {
+        int limit = intParam(query, "limit", missing);
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_BODY + 1);
+        }
+        if (body.length > MAX_BODY) {
+            throw new IllegalArgumentException("Request body too large");
+        }
+        return new JsonReader(new String(body, StandardCharsets.UTF_8)).readObject();
+    }
+
+    private static String stringField(Map<String, Object> body, String name, String missing) {
+        Object value = body.get(name);
+        if (value == null) {
+            return missing;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static int intField(Map<String, Object> body, String name, int missing) {
+        Object value = body.get(name);
+        if (value == null) {
+            return missing;
+        }
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+        return ((Long) value).intValue();
+    }
+
+    //reads the flat objects the API accepts: string, integer, boolean and null values
+    private static class JsonReader {
+        private final String text;
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> readObject() {
+            Map<String, Object> object = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    String key = readString();
+                    expect(':');
+                    object.put(key, readValue());
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("expected , or }");
+                    }
+                }
+            }
+            if (peek() != 0) {
+                throw error("unexpected trailing data");
+            }
+            return object;
+        }
+
+        private Object readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = pos;
+                pos++;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                try {
+                    return Long.parseLong(text.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw error("bad number");
+                }
+            }
+            for (String literal : new String[] {"true", "false", "null"}) {
+                if (text.startsWith(literal, pos)) {
+                    pos += literal.length();
+                    return literal.equals("null") ? null : Boolean.valueOf(literal);
+                }
+            }
+            throw error("unsupported value");
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escape);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("bad escape");
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("expected " + expected);
+            }
+        }
+
+        private char next() {
+            char c = peek();
+            if (c != 0) {
+                pos++;
+            }
+            return c;
+        }
+
+        //next non-whitespace character without consuming it, 0 at the end
+        private char peek() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad JSON at " + pos + ": " + message);
+        }
+    }
+
+    //java test.LibraryServer [--port=8080] [--columnar | --offheap | --offheap=<dir>]
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int port = 8080;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+        ItemStore store = ItemStore.fromArgs(args);
+        Library library = new Library(store);
+        ItemJournal journal = new ItemJournal("items.snap", "items.log");
+        try {
+            journal.open(library, "items.txt");
+            LibraryServer server = new LibraryServer(library, port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                journal.close();
+                if (store instanceof OffHeapItemStore) {
+                    ((OffHeapItemStore) store).force();
+                }
+            }));
+            System.out.println("Serving " + library.size() + " items on http://localhost:" + server.getPort());
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            journal.close();
+        }
+    }
+}
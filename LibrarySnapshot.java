@@ -0,0 +1,121 @@
+package test;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+//the whole library as it was at one moment: every item in id order as a
+//read-only copy. Taking one is O(1) and it never changes afterwards, so the
+//table, exports and statistics can walk it while writers carry on
+final class LibrarySnapshot {
+    static final LibrarySnapshot EMPTY = new LibrarySnapshot(PersistentIntMap.empty(), 0);
+
+    private final PersistentIntMap<Item> items;
+    private final long version;
+
+    LibrarySnapshot(PersistentIntMap<Item> items, long version) {
+        this.items = items;
+        this.version = version;
+    }
+
+    //goes up by one for every change, so equal versions mean equal contents
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public Item getItemById(int id) {
+        return items.get(id);
+    }
+
+    //random access in O(log n), no copy is made
+    public List<Item> getItems() {
+        return new ItemList();
+    }
+
+    public void forEach(Consumer<? super Item> action) {
+        items.forEach(action);
+    }
+
+    //items with ids from firstId to lastId inclusive, in id order
+    public void forEachInRange(int firstId, int lastId, Consumer<? super Item> action) {
+        items.forEachInRange(firstId, lastId, action);
+    }
+
+    PersistentIntMap<Item> map() {
+        return items;
+    }
+
+    private final class ItemList extends AbstractList<Item> implements RandomAccess {
+        @Override
+        public Item get(int index) {
+            return items.valueAt(index);
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public Iterator<Item> iterator() {
+            return items.iterator();
+        }
+
+        @Override
+        public void forEach(Consumer<? super Item> action) {
+            items.forEach(action);
+        }
+    }
+
+    //copies item's current fields into an object the snapshot can own
+    static Item freeze(Item item) {
+        if (item instanceof FrozenBook || item instanceof FrozenItem) {
+            return item;
+        }
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            return new FrozenBook(book.getId(), book.getTitle(), book.getAuthor(), book.getType(), book.getPageCount(), book.getYear());
+        }
+        return new FrozenItem(item.getId(), item.getTitle(), item.getType());
+    }
+
+    //snapshot items are shared by every reader, so their setters refuse;
+    //edit through Library, which takes an id and edits the stored copy
+    private static final class FrozenItem extends Item {
+        FrozenItem(int id, String title, int type) {
+            super(id, title, type);
+        }
+    }
+
+    private static final class FrozenBook extends Book {
+        FrozenBook(int id, String title, String author, int type, int pageCount, int year) {
+            super(id, title, author, type, pageCount, year);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            throw new UnsupportedOperationException("Snapshot items are read-only");
+        }
+
+        @Override
+        public void setAuthor(String author) {
+            throw new UnsupportedOperationException("Snapshot items are read-only");
+        }
+
+        @Override
+        public void setPageCount(int pageCount) {
+            throw new UnsupportedOperationException("Snapshot items are read-only");
+        }
+
+        @Override
+        public void setYear(int year) {
+            throw new UnsupportedOperationException("Snapshot items are read-only");
+        }
+    }
+}
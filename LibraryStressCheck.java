@@ -0,0 +1,231 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//multi-threaded hammer over Library. Writer threads add, delete, rename and
+//view their own items while reader threads walk the list, title lookups and
+//snapshots. Each writer keeps what it expects of its items, so when all are
+//done the library must hold exactly their live items with the last title set,
+//every view counted, and no id handed out twice. Run with
+//  java test.LibraryStressCheck [writers] [operations per writer]
+//exits with status 1 when an invariant does not hold
+class LibraryStressCheck {
+    private static final String[] TITLES = {"Dune", "Emma", "Ulysses", "Beloved", "Hamlet", "Ivanhoe"};
+    private static final int READERS = 2;
+
+    private final Library library;
+    private final int writers;
+    private final int operations;
+    //every id a writer was handed, to catch the allocator repeating one
+    private final Set<Integer> allocated;
+
+    LibraryStressCheck(Library library, int writers, int operations) {
+        this.library = library;
+        this.writers = writers;
+        this.operations = operations;
+        this.allocated = ConcurrentHashMap.newKeySet();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        try {
+            new LibraryStressCheck(new Library(), writers, operations).run();
+            new LibraryStressCheck(new Library(new ColumnarItemStore()), writers, operations).run();
+        } catch (AssertionError e) {
+            System.err.println("Stress check failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Stress check passed, " + writers + " writers x " + operations + " operations per store");
+    }
+
+    void run() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(writers + READERS);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<Writer>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Writer writer = new Writer(i);
+            results.add(pool.submit(() -> {
+                go.await();
+                writer.run();
+                return writer;
+            }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(pool.submit(() -> {
+                go.await();
+                read(done);
+                return null;
+            }));
+        }
+        go.countDown();
+        Map<Integer, String> expectedTitles = new HashMap<>();
+        Map<Integer, Long> expectedViews = new HashMap<>();
+        for (Future<Writer> result : results) {
+            Writer writer = join(result);
+            expectedTitles.putAll(writer.titles);
+            expectedViews.putAll(writer.views);
+        }
+        done.set(true);
+        for (Future<?> reader : readers) {
+            join(reader);
+        }
+        pool.shutdown();
+        verify(expectedTitles, expectedViews);
+    }
+
+    //a failed check in a worker fails the run with its own message
+    private static <T> T join(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AssertionError) {
+                throw (AssertionError) e.getCause();
+            }
+            throw new AssertionError("worker failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    //one writer: only touches items it added, so its expectations are exact
+    private final class Writer {
+        private final Random random;
+        private final Map<Integer, String> titles = new HashMap<>();
+        private final Map<Integer, Long> views = new HashMap<>();
+        private final List<Integer> live = new ArrayList<>();
+
+        Writer(int seed) {
+            this.random = new Random(seed);
+        }
+
+        void run() {
+            for (int i = 0; i < operations; i++) {
+                int choice = random.nextInt(10);
+                if (choice < 3 || live.isEmpty()) {
+                    add(new Book(randomTitle(), "Author", 1, 100, 2000));
+                } else if (choice == 3) {
+                    List<Item> batch = new ArrayList<>();
+                    for (int j = random.nextInt(10); j > 0; j--) {
+                        batch.add(new Book(randomTitle(), "Author", 1, 100, 2000));
+                    }
+                    check(library.addAll(batch) == batch.size(), "addAll skipped new ids");
+                    for (Item item : batch) {
+                        track(item);
+                    }
+                } else if (choice == 4) {
+                    int id = live.remove(random.nextInt(live.size()));
+                    check(library.deleteItemById(id), "delete of live id " + id + " refused");
+                    titles.remove(id);
+                    views.remove(id);
+                } else if (choice == 5) {
+                    int id = pick();
+                    String title = randomTitle();
+                    ((Book) library.getItemById(id)).setTitle(title);
+                    titles.put(id, title);
+                } else if (choice == 6) {
+                    int id = pick();
+                    String title = randomTitle();
+                    check(library.updateBook((Book) library.getItemById(id), title, "Other", 200, 1990), "update of live id " + id + " refused");
+                    titles.put(id, title);
+                } else {
+                    int id = pick();
+                    library.viewItem(id);
+                    views.merge(id, 1L, Long::sum);
+                }
+            }
+        }
+
+        private void add(Item item) {
+            check(library.addItem(item), "add of new id " + item.getId() + " refused");
+            track(item);
+        }
+
+        private void track(Item item) {
+            check(allocated.add(item.getId()), "id " + item.getId() + " handed out twice");
+            titles.put(item.getId(), item.getTitle());
+            views.put(item.getId(), 0L);
+            live.add(item.getId());
+        }
+
+        private int pick() {
+            return live.get(random.nextInt(live.size()));
+        }
+    }
+
+    //readers must never fail or see an item twice, whatever the writers do
+    private void read(AtomicBoolean done) {
+        Random random = new Random();
+        while (!done.get()) {
+            Set<Integer> seen = new HashSet<>();
+            for (Item item : library.getItems()) {
+                check(seen.add(item.getId()), "id " + item.getId() + " listed twice while writing");
+            }
+            for (Item item : library.getItemsByTitle(randomTitle(random))) {
+                //a store view of an item deleted meanwhile reads as empty
+                check(item.getTitle() != null || library.getItemById(item.getId()) == null, "item " + item.getId() + " without a title");
+            }
+            LibrarySnapshot snapshot = library.snapshot();
+            check(snapshot.getItems().size() == snapshot.size(), "snapshot list and size differ");
+        }
+    }
+
+    private void verify(Map<Integer, String> expectedTitles, Map<Integer, Long> expectedViews) {
+        List<Item> items = library.getItems();
+        check(items.size() == expectedTitles.size() && library.size() == expectedTitles.size(),
+                "list holds " + items.size() + ", size() says " + library.size() + ", expected " + expectedTitles.size());
+        Set<Integer> listed = new HashSet<>();
+        for (Item item : items) {
+            check(listed.add(item.getId()), "id " + item.getId() + " listed twice");
+            String title = expectedTitles.get(item.getId());
+            check(title != null, "ghost id " + item.getId());
+            check(title.equals(item.getTitle()), "id " + item.getId() + " is " + item.getTitle() + ", last set to " + title);
+            long views = library.getPopularity().getCount(item.getId());
+            check(views == expectedViews.get(item.getId()), "id " + item.getId() + " has " + views + " views, expected " + expectedViews.get(item.getId()));
+        }
+        for (Integer id : expectedTitles.keySet()) {
+            check(library.getItemById(id) != null, "lost id " + id);
+        }
+        int indexed = 0;
+        for (String title : TITLES) {
+            for (Item item : library.getItemsByTitle(title)) {
+                check(item.getTitle().equals(title), "id " + item.getId() + " titled " + item.getTitle() + " found under " + title);
+                indexed++;
+            }
+        }
+        check(indexed == items.size(), "title index holds " + indexed + " ids, list holds " + items.size());
+        LibrarySnapshot snapshot = library.snapshot();
+        check(snapshot.size() == items.size(), "snapshot holds " + snapshot.size() + ", list holds " + items.size());
+        for (Item item : snapshot.getItems()) {
+            check(item.getTitle().equals(expectedTitles.get(item.getId())), "snapshot has id " + item.getId() + " as " + item.getTitle());
+        }
+    }
+
+    private static String randomTitle() {
+        return randomTitle(ThreadLocalRandom.current());
+    }
+
+    private static String randomTitle(Random random) {
+        return TITLES[random.nextInt(TITLES.length)];
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+//table of the library's books that reads cells from a LibrarySnapshot, so a
+//repaint never sees an edit half applied and never waits for a writer.
+//rows are kept as a sorted array of item ids, so a change costs a binary
+//search plus one row event instead of rebuilding the whole table. Library
+//events can arrive on any thread; they are queued and applied on the EDT,
+//which then moves to the newest snapshot
+class LibraryTableModel extends AbstractTableModel implements LibraryListener {
+    private static final String[] COLUMN_NAMES = {"ID", "Title", "Author", "Page Count", "Year"};
+    //a batch touching more separate row ranges than this is sent as one
+    //refresh instead of an event per range
+    private static final int MAX_RANGE_EVENTS = 64;
+
+    private final Library library;
+    private final Queue<Change> changes;
+    private final AtomicBoolean drainScheduled;
+    private int[] rowIds; //only touched on the EDT
+    private int rowCount;
+    private LibrarySnapshot snapshot; //only touched on the EDT
+
+    public LibraryTableModel(Library library) {
+        this.library = library;
+        this.changes = new ConcurrentLinkedQueue<>();
+        this.drainScheduled = new AtomicBoolean();
+        library.addLibraryListener(this);
+        //changes racing with this load are replayed afterwards and are no-ops
+        snapshot = library.snapshot();
+        rowIds = new int[Math.max(16, snapshot.size())];
+        snapshot.forEach(item -> {
+            if (item instanceof Book) {
+                rowIds[rowCount++] = item.getId();
+            }
+        });
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 1 || column == 2 ? String.class : Integer.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = getBookAt(row);
+        if (book == null) {
+            return null;
+        }
+        switch (column) {
+            case 0:
+                return book.getId();
+            case 1:
+                return book.getTitle();
+            case 2:
+                return book.getAuthor();
+            case 3:
+                return book.getPageCount();
+            default:
+                return book.getYear();
+        }
+    }
+
+    //a read-only copy; edit through Library
+    public Book getBookAt(int row) {
+        if (row < 0 || row >= rowCount) {
+            return null;
+        }
+        Item item = snapshot.getItemById(rowIds[row]);
+        return item instanceof Book ? (Book) item : null;
+    }
+
+    //-1 if the item has no row
+    public int getRowOf(int id) {
+        int row = Arrays.binarySearch(rowIds, 0, rowCount, id);
+        return row >= 0 ? row : -1;
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        if (item instanceof Book) {
+            post(new Change(Change.ADDED, item.getId()));
+        }
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        if (item instanceof Book) {
+            post(new Change(Change.REMOVED, item.getId()));
+        }
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        if (item instanceof Book) {
+            post(new Change(Change.UPDATED, item.getId()));
+        }
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        //no view column to refresh
+    }
+
+    @Override
+    public void itemsAdded(List<Item> items) {
+        postBatch(Change.ADDED, items);
+    }
+
+    @Override
+    public void itemsRemoved(List<Item> items) {
+        postBatch(Change.REMOVED, items);
+    }
+
+    @Override
+    public void itemsUpdated(List<Item> items) {
+        postBatch(Change.UPDATED, items);
+    }
+
+    //a batch becomes one change holding its sorted book ids, applied with a
+    //single merge and one table event per run of adjacent rows it touched
+    private void postBatch(int kind, List<Item> items) {
+        int[] ids = new int[items.size()];
+        int count = 0;
+        for (Item item : items) {
+            if (item instanceof Book) {
+                ids[count++] = item.getId();
+            }
+        }
+        if (count > 0) {
+            ids = Arrays.copyOf(ids, count);
+            Arrays.sort(ids);
+            post(new Change(kind, ids));
+        }
+    }
+
+    private void post(Change change) {
+        changes.add(change);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        List<Change> polled = new ArrayList<>();
+        Change next;
+        while ((next = changes.poll()) != null) {
+            polled.add(next);
+        }
+        //taken after polling: a change is only posted once the library holds
+        //it, so the snapshot covers every change applied below. Ones posted
+        //meanwhile schedule another drain
+        snapshot = library.snapshot();
+        for (Change change : polled) {
+            if (change.ids != null) {
+                applyBatch(change);
+                continue;
+            }
+            int row = Arrays.binarySearch(rowIds, 0, rowCount, change.id);
+            if (change.kind == Change.ADDED && row < 0) {
+                insertRow(-row - 1, change.id);
+            } else if (change.kind == Change.REMOVED && row >= 0) {
+                System.arraycopy(rowIds, row + 1, rowIds, row, rowCount - row - 1);
+                rowCount--;
+                fireTableRowsDeleted(row, row);
+            } else if (change.kind == Change.UPDATED && row >= 0) {
+                fireTableRowsUpdated(row, row);
+            }
+        }
+    }
+
+    private void applyBatch(Change change) {
+        int[] ids = change.ids;
+        RowRanges ranges = new RowRanges();
+        if (change.kind == Change.UPDATED) {
+            for (int id : ids) {
+                int row = Arrays.binarySearch(rowIds, 0, rowCount, id);
+                if (row >= 0) {
+                    ranges.add(row);
+                }
+            }
+            if (ranges.count > MAX_RANGE_EVENTS) {
+                fireTableRowsUpdated(ranges.starts[0], ranges.ends[ranges.count - 1]);
+            } else {
+                for (int k = 0; k < ranges.count; k++) {
+                    fireTableRowsUpdated(ranges.starts[k], ranges.ends[k]);
+                }
+            }
+            return;
+        }
+        //merge the two sorted id lists in one pass, noting the rows inserted
+        //(as indexes into the new rows) or removed (as indexes into the old)
+        int[] merged = new int[change.kind == Change.ADDED ? rowCount + ids.length : rowCount];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < rowCount || j < ids.length) {
+            if (j == ids.length || (i < rowCount && rowIds[i] < ids[j])) {
+                merged[count++] = rowIds[i++];
+            } else if (i == rowCount || ids[j] < rowIds[i]) {
+                if (change.kind == Change.ADDED) {
+                    ranges.add(count);
+                    merged[count++] = ids[j];
+                }
+                j++;
+            } else {
+                if (change.kind == Change.ADDED) {
+                    merged[count++] = rowIds[i];
+                } else {
+                    ranges.add(i);
+                }
+                i++;
+                j++;
+            }
+        }
+        if (ranges.count == 0) {
+            return;
+        }
+        rowIds = merged.length >= 16 ? merged : Arrays.copyOf(merged, 16);
+        rowCount = count;
+        if (ranges.count > MAX_RANGE_EVENTS) {
+            fireTableDataChanged();
+        } else if (change.kind == Change.ADDED) {
+            //in order, each range's rows already count the ones inserted before it
+            for (int k = 0; k < ranges.count; k++) {
+                fireTableRowsInserted(ranges.starts[k], ranges.ends[k]);
+            }
+        } else {
+            //last first, so each range's rows are not shifted by an earlier event
+            for (int k = ranges.count - 1; k >= 0; k--) {
+                fireTableRowsDeleted(ranges.starts[k], ranges.ends[k]);
+            }
+        }
+    }
+
+    private void insertRow(int row, int id) {
+        if (rowCount == rowIds.length) {
+            rowIds = Arrays.copyOf(rowIds, rowIds.length * 2);
+        }
+        System.arraycopy(rowIds, row, rowIds, row + 1, rowCount - row);
+        rowIds[row] = id;
+        rowCount++;
+        fireTableRowsInserted(row, row);
+    }
+
+    //ascending rows collected as runs of adjacent rows
+    private static class RowRanges {
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int count;
+
+        void add(int row) {
+            if (count > 0 && ends[count - 1] == row - 1) {
+                ends[count - 1] = row;
+                return;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = row;
+            ends[count] = row;
+            count++;
+        }
+    }
+
+    private static class Change {
+        static final int ADDED = 0;
+        static final int REMOVED = 1;
+        static final int UPDATED = 2;
+
+        final int kind;
+        final int id;
+        final int[] ids; //sorted, set for bulk changes only
+
+        Change(int kind, int id) {
+            this.kind = kind;
+            this.id = id;
+            this.ids = null;
+        }
+
+        Change(int kind, int[] ids) {
+            this.kind = kind;
+            this.id = -1;
+            this.ids = ids;
+        }
+    }
+}
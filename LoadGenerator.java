@@ -0,0 +1,488 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+//headless load generator: drives Library and FileHandler with a stream of
+//operations the way the GUI and server would, at a target rate across N
+//threads, and reports throughput, latency percentiles and allocation per
+//operation type. The operations are generated from a seed or replayed from
+//a trace file, so a run can be repeated exactly. Run with
+//  javac -d out *.java && java -cp out test.LoadGenerator
+//      [--size=100000] [--ops=1000000] [--threads=4] [--rate=20000] [--warmup=100000]
+//      [--mix=view=85,edit=8,add=4,delete=3,save=0.001,load=0.001] [--seed=42]
+//      [--trace=in.trace] [--record=out.trace] [--journal=dir] [--columnar|--offheap] [--out=load.json]
+//--rate is operations per second over all threads, 0 runs every thread as
+//fast as it can. With a rate each operation has an intended start time and
+//latency is measured from it, so a stall also counts against everything
+//that queued up behind it instead of hiding them (coordinated omission)
+class LoadGenerator {
+    static final int VIEW = 0;
+    static final int EDIT = 1;
+    static final int ADD = 2;
+    static final int DELETE = 3;
+    static final int SAVE = 4;
+    static final int LOAD = 5;
+    static final String[] NAMES = {"view", "edit", "add", "delete", "save", "load"};
+
+    //a generated delete removes a book added at least this many operations
+    //earlier, so the add has run even when the two land on different threads
+    private static final int DELETE_LAG = 1000;
+    //parkNanos overshoots by tens of microseconds, so the last stretch is spun
+    //when there are spare cores; without them spinning only delays the others
+    private static final long SPIN_NANOS = 100_000;
+
+    private static volatile long sink;
+
+    //one line of a trace
+    static class Op {
+        final int kind;
+        final String title;
+        final String author;
+        final int pageCount;
+        final int year;
+
+        Op(int kind, String title, String author, int pageCount, int year) {
+            this.kind = kind;
+            this.title = title;
+            this.author = author;
+            this.pageCount = pageCount;
+            this.year = year;
+        }
+    }
+
+    //the catalogue a trace runs against and the operations themselves. A
+    //trace file starts with "#catalogue,<size>,<seed>" and then has one
+    //operation per line:
+    //  view,<title>  edit,<title>,<pageCount>  add,<title>,<author>,<pageCount>,<year>
+    //  delete,<title>  save  load
+    static class Trace {
+        final int size;
+        final long seed;
+        final List<Op> ops;
+
+        Trace(int size, long seed, List<Op> ops) {
+            this.size = size;
+            this.seed = seed;
+            this.ops = ops;
+        }
+
+        static Trace generate(int size, long seed, int count, double[] mix) {
+            List<String> titles = bookTitles(new CatalogueGenerator(seed).generate(size));
+            Random random = new Random(seed + 1);
+            double total = 0;
+            for (double weight : mix) {
+                total += weight;
+            }
+            List<Op> ops = new ArrayList<>(count);
+            ArrayDeque<Integer> added = new ArrayDeque<>();
+            for (int i = 0; i < count; i++) {
+                int kind = pick(mix, random.nextDouble() * total);
+                switch (kind) {
+                    case VIEW:
+                        //a few books get most of the views, as in a real catalogue
+                        int index = (int) (titles.size() * Math.pow(random.nextDouble(), 3));
+                        ops.add(new Op(VIEW, titles.get(index), null, 0, 0));
+                        break;
+                    case EDIT:
+                        ops.add(new Op(EDIT, titles.get(random.nextInt(titles.size())), null, 24 + random.nextInt(900), 0));
+                        break;
+                    case ADD:
+                        added.add(i);
+                        ops.add(new Op(ADD, "Arrival " + i, "Load Author " + random.nextInt(5000),
+                                24 + random.nextInt(900), 1900 + random.nextInt(125)));
+                        break;
+                    case DELETE:
+                        if (!added.isEmpty() && added.peekFirst() + DELETE_LAG <= i) {
+                            ops.add(new Op(DELETE, ops.get(added.pollFirst()).title, null, 0, 0));
+                        } else {
+                            ops.add(new Op(DELETE, titles.get(random.nextInt(titles.size())), null, 0, 0));
+                        }
+                        break;
+                    default:
+                        ops.add(new Op(kind, null, null, 0, 0));
+                }
+            }
+            return new Trace(size, seed, ops);
+        }
+
+        static Trace read(Path file) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                String header = reader.readLine();
+                String[] catalogue = header != null ? header.split(",") : new String[0];
+                if (catalogue.length != 3 || !catalogue[0].equals("#catalogue")) {
+                    throw new IOException("Trace " + file + " does not start with #catalogue,<size>,<seed>");
+                }
+                List<Op> ops = new ArrayList<>();
+                int lineNumber = 1;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        ops.add(parse(line.split(",", -1)));
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        throw new IOException("Bad trace line " + lineNumber + ": " + line);
+                    }
+                }
+                return new Trace(Integer.parseInt(catalogue[1]), Long.parseLong(catalogue[2]), ops);
+            }
+        }
+
+        private static Op parse(String[] fields) {
+            switch (fields[0]) {
+                case "view":
+                    return new Op(VIEW, fields[1], null, 0, 0);
+                case "edit":
+                    return new Op(EDIT, fields[1], null, Integer.parseInt(fields[2]), 0);
+                case "add":
+                    return new Op(ADD, fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                case "delete":
+                    return new Op(DELETE, fields[1], null, 0, 0);
+                case "save":
+                    return new Op(SAVE, null, null, 0, 0);
+                case "load":
+                    return new Op(LOAD, null, null, 0, 0);
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + fields[0]);
+            }
+        }
+
+        void write(Path file) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("#catalogue," + size + "," + seed + "\n");
+                for (Op op : ops) {
+                    StringBuilder line = new StringBuilder(NAMES[op.kind]);
+                    if (op.kind == VIEW || op.kind == DELETE) {
+                        line.append(',').append(op.title);
+                    } else if (op.kind == EDIT) {
+                        line.append(',').append(op.title).append(',').append(op.pageCount);
+                    } else if (op.kind == ADD) {
+                        line.append(',').append(op.title).append(',').append(op.author)
+                                .append(',').append(op.pageCount).append(',').append(op.year);
+                    }
+                    writer.write(line.append('\n').toString());
+                }
+            }
+        }
+
+        private static int pick(double[] mix, double roll) {
+            for (int kind = 0; kind < mix.length; kind++) {
+                roll -= mix[kind];
+                if (roll < 0) {
+                    return kind;
+                }
+            }
+            return VIEW;
+        }
+    }
+
+    private final Library library;
+    private final Path loadFile;
+    private final Path saveFile;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean countAllocations;
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[NAMES.length];
+    private long[][] allocated;
+    private long measuredNanos;
+
+    LoadGenerator(Library library, Path loadFile, Path saveFile) {
+        this.library = library;
+        this.loadFile = loadFile;
+        this.saveFile = saveFile;
+        for (int kind = 0; kind < NAMES.length; kind++) {
+            latency[kind] = new LatencyHistogram();
+        }
+        boolean supported = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        if (supported) {
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+        }
+        this.countAllocations = supported;
+    }
+
+    //operation i runs on thread i % threadCount; the first warmup operations
+    //run but are not measured
+    void run(List<Op> ops, int threadCount, double rate, int warmup) throws InterruptedException {
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        boolean spin = threadCount < Runtime.getRuntime().availableProcessors();
+        allocated = new long[threadCount][NAMES.length];
+        long[] firstMeasured = new long[threadCount];
+        long[] finished = new long[threadCount];
+        Thread[] workers = new Thread[threadCount];
+        //leave time for every worker to start before the first intended start
+        long begin = System.nanoTime() + 50_000_000L;
+        for (int t = 0; t < threadCount; t++) {
+            final int worker = t;
+            workers[t] = new Thread(() -> {
+                firstMeasured[worker] = Long.MAX_VALUE;
+                for (int i = worker; i < ops.size(); i += threadCount) {
+                    Op op = ops.get(i);
+                    long start = interval > 0 ? waitUntil(begin + i * interval, spin) : System.nanoTime();
+                    long bytes = allocatedBytes();
+                    execute(op);
+                    long end = System.nanoTime();
+                    if (i >= warmup) {
+                        firstMeasured[worker] = Math.min(firstMeasured[worker], start);
+                        latency[op.kind].record(end - start);
+                        allocated[worker][op.kind] += allocatedBytes() - bytes;
+                    }
+                }
+                finished[worker] = System.nanoTime();
+            }, "load-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        for (int t = 0; t < threadCount; t++) {
+            first = Math.min(first, firstMeasured[t]);
+            last = Math.max(last, finished[t]);
+        }
+        measuredNanos = Math.max(1, last - first);
+    }
+
+    private static long waitUntil(long intended, boolean spin) {
+        long margin = spin ? SPIN_NANOS : 0;
+        long wait;
+        while ((wait = intended - System.nanoTime()) > margin) {
+            LockSupport.parkNanos(wait - margin);
+        }
+        while (System.nanoTime() < intended) {
+            Thread.onSpinWait();
+        }
+        return intended;
+    }
+
+    private void execute(Op op) {
+        switch (op.kind) {
+            case VIEW:
+                library.viewBook(op.title);
+                break;
+            case EDIT:
+                library.setBookPageCount(op.title, op.pageCount);
+                break;
+            case ADD:
+                library.addItem(new Book(op.title, op.author, 0, op.pageCount, op.year));
+                break;
+            case DELETE:
+                library.deleteItem(op.title);
+                break;
+            case SAVE:
+                new FileHandler().saveItemsToFile(library.getItems(), saveFile.toString());
+                break;
+            case LOAD:
+                sink = new FileHandler().loadItemsFromFile(loadFile.toString()).size();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + op.kind);
+        }
+    }
+
+    private long allocatedBytes() {
+        if (!countAllocations) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long allocated(int kind) {
+        long bytes = 0;
+        for (long[] perThread : allocated) {
+            bytes += perThread[kind];
+        }
+        return bytes;
+    }
+
+    void printReport() {
+        double seconds = measuredNanos / 1e9;
+        System.out.printf("%-8s %10s %12s %10s %10s %10s %10s %12s %10s%n",
+                "op", "count", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "bytes/op", "MB/s");
+        long count = 0;
+        long bytes = 0;
+        for (int kind = 0; kind < NAMES.length; kind++) {
+            LatencyHistogram.Snapshot snapshot = latency[kind].snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            count += snapshot.getCount();
+            bytes += allocated(kind);
+            System.out.printf(Locale.ROOT, "%-8s %10d %12.1f %10.1f %10.1f %10.1f %10.1f %12s %10s%n",
+                    NAMES[kind], snapshot.getCount(), snapshot.getCount() / seconds,
+                    snapshot.getPercentile(50) / 1e3, snapshot.getPercentile(99) / 1e3,
+                    snapshot.getPercentile(99.9) / 1e3, snapshot.getMax() / 1e3,
+                    allocation((double) allocated(kind) / snapshot.getCount()),
+                    allocation(allocated(kind) / seconds / 1e6));
+        }
+        System.out.printf(Locale.ROOT, "%-8s %10d %12.1f %54s %10s%n", "all", count, count / seconds, "",
+                allocation(bytes / seconds / 1e6));
+        System.out.printf(Locale.ROOT, "measured %.2f s%n", seconds);
+    }
+
+    private String allocation(double value) {
+        return countAllocations ? String.format(Locale.ROOT, "%.1f", value) : "n/a";
+    }
+
+    void writeReport(Path out, int threadCount, double rate) throws IOException {
+        double seconds = measuredNanos / 1e9;
+        try (BufferedWriter writer = Files.newBufferedWriter(out)) {
+            writer.write("{\"threads\":" + threadCount + ",\"targetRate\":" + number(rate)
+                    + ",\"seconds\":" + number(seconds) + ",\"operations\":[\n");
+            boolean first = true;
+            for (int kind = 0; kind < NAMES.length; kind++) {
+                LatencyHistogram.Snapshot snapshot = latency[kind].snapshot();
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                StringBuilder json = new StringBuilder(first ? "  {\"op\":" : ",\n  {\"op\":");
+                LibraryServer.appendString(json, NAMES[kind]);
+                json.append(",\"count\":").append(snapshot.getCount())
+                        .append(",\"opsPerSecond\":").append(number(snapshot.getCount() / seconds))
+                        .append(",\"p50Nanos\":").append(snapshot.getPercentile(50))
+                        .append(",\"p99Nanos\":").append(snapshot.getPercentile(99))
+                        .append(",\"p999Nanos\":").append(snapshot.getPercentile(99.9))
+                        .append(",\"maxNanos\":").append(snapshot.getMax());
+                if (countAllocations) {
+                    json.append(",\"bytesPerOp\":").append(number((double) allocated(kind) / snapshot.getCount()))
+                            .append(",\"bytesPerSecond\":").append(number(allocated(kind) / seconds));
+                }
+                writer.write(json.append('}').toString());
+                first = false;
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static List<String> bookTitles(List<Item> items) {
+        List<String> titles = new ArrayList<>();
+        for (Item item : items) {
+            if (item instanceof Book) {
+                titles.add(item.getTitle());
+            }
+        }
+        return titles;
+    }
+
+    //view=85,edit=8,... in NAMES order; kinds left out get no weight
+    private static double[] parseMix(String text) {
+        double[] mix = new double[NAMES.length];
+        for (String part : text.split(",")) {
+            String[] pair = part.split("=");
+            int kind = -1;
+            for (int i = 0; i < NAMES.length; i++) {
+                if (NAMES[i].equals(pair[0].trim())) {
+                    kind = i;
+                }
+            }
+            if (kind < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            mix[kind] = Double.parseDouble(pair[1]);
+        }
+        return mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int size = 100000;
+        int opCount = 1000000;
+        int threadCount = 4;
+        double rate = 20000;
+        int warmup = -1;
+        long seed = 42;
+        double[] mix = parseMix("view=85,edit=8,add=4,delete=3,save=0.001,load=0.001");
+        Path traceFile = null;
+        Path recordFile = null;
+        Path journalDir = null;
+        Path out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--ops=")) {
+                opCount = Integer.parseInt(arg.substring("--ops=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threadCount = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--rate=")) {
+                rate = Double.parseDouble(arg.substring("--rate=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--mix=")) {
+                mix = parseMix(arg.substring("--mix=".length()));
+            } else if (arg.startsWith("--trace=")) {
+                traceFile = Paths.get(arg.substring("--trace=".length()));
+            } else if (arg.startsWith("--record=")) {
+                recordFile = Paths.get(arg.substring("--record=".length()));
+            } else if (arg.startsWith("--journal=")) {
+                journalDir = Paths.get(arg.substring("--journal=".length()));
+            } else if (arg.startsWith("--out=")) {
+                out = Paths.get(arg.substring("--out=".length()));
+            }
+        }
+
+        Trace trace = traceFile != null ? Trace.read(traceFile) : Trace.generate(size, seed, opCount, mix);
+        if (recordFile != null) {
+            trace.write(recordFile);
+            System.out.println("Trace of " + trace.ops.size() + " operations written to " + recordFile.toAbsolutePath());
+            return;
+        }
+        if (warmup < 0) {
+            warmup = trace.ops.size() / 10;
+        }
+
+        //the same catalogue the trace was generated against
+        List<Item> items = new CatalogueGenerator(trace.seed).generate(trace.size);
+        Library library = new Library(ItemStore.fromArgs(args));
+        library.addAll(items);
+        Path loadFile = Files.createTempFile("load-catalogue-", ".txt");
+        Path saveFile = Files.createTempFile("load-save-", ".txt");
+        new FileHandler().saveItemsToFile(items, loadFile.toString());
+        ItemJournal journal = null;
+        if (journalDir != null) {
+            Files.createDirectories(journalDir);
+            journal = new ItemJournal(journalDir.resolve("items.snap").toString(), journalDir.resolve("items.log").toString());
+            journal.start(library);
+        }
+
+        System.out.printf(Locale.ROOT, "%d operations on %d items, %d threads, %s%n", trace.ops.size(), trace.size,
+                threadCount, rate > 0 ? String.format(Locale.ROOT, "%.0f ops/s", rate) : "closed loop");
+        LoadGenerator generator = new LoadGenerator(library, loadFile, saveFile);
+        try {
+            generator.run(trace.ops, threadCount, rate, warmup);
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            Files.deleteIfExists(loadFile);
+            Files.deleteIfExists(saveFile);
+        }
+        generator.printReport();
+        if (out != null) {
+            generator.writeReport(out, threadCount, rate);
+            System.out.println("Report written to " + out.toAbsolutePath());
+        }
+        System.exit(0);
+    }
+}
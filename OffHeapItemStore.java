@@ -0,0 +1,614 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+//item store that keeps records outside the Java heap: fixed-width slots in
+//one region and titles/authors in a string arena in another. Both regions are
+//direct buffers, or memory-mapped files when the store is opened on a
+//directory, in which case the catalogue is still there after a restart.
+//Deleted slots and freed string chunks are reused, so neither region grows
+//past the catalogue's peak size
+class OffHeapItemStore implements ItemStore {
+    private static final int MAGIC = 0x4C424F48;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    //header: magic, version, slot count, arena top, then the journal mark
+    private static final int MARK = 24;
+    private static final int MARK_LENGTH = 3;
+    private static final int MARK_SET = 48;
+    private static final int SLOT_SIZE = 40;
+
+    //slot layout
+    private static final int KIND = 0;
+    private static final int ID = 4;
+    private static final int TYPE = 8;
+    private static final int PAGE_COUNT = 12;
+    private static final int YEAR = 16;
+    private static final int TITLE = 24;
+    private static final int AUTHOR = 32;
+
+    private static final int KIND_FREE = 0;
+    private static final int KIND_ITEM = 1;
+    private static final int KIND_BOOK = 2;
+
+    //string chunks: size class, byte length (-1 once freed), UTF-8 bytes.
+    //a chunk of class c is MIN_CHUNK << c bytes including its 8 byte header
+    private static final int MIN_CHUNK = 16;
+    private static final int CHUNK_CLASSES = 24;
+    private static final long NO_STRING = -1;
+
+    //reads are optimistic and retried under the read lock only when a write
+    //got in between, as in ColumnarItemStore
+    private final StampedLock lock;
+    private final Region slots;
+    private final Region arena;
+    private final IntIntMap slotsById;
+    private Library library;
+    private int slotCount;
+    private long arenaTop;
+    private int[] freeSlots;
+    private int freeSlotCount;
+    private final long[][] freeChunks;
+    private final int[] freeChunkCounts;
+
+    //in-memory store backed by direct buffers
+    public OffHeapItemStore() {
+        this(new Region(null), new Region(null));
+        writeHeader();
+    }
+
+    private OffHeapItemStore(Region slots, Region arena) {
+        this.lock = new StampedLock();
+        this.slots = slots;
+        this.arena = arena;
+        this.slotsById = new IntIntMap(1024);
+        this.freeSlots = new int[16];
+        this.freeChunks = new long[CHUNK_CLASSES][];
+        this.freeChunkCounts = new int[CHUNK_CLASSES];
+    }
+
+    //file-backed store kept in directory/items.slots and directory/items.arena,
+    //reloading whatever an earlier run left there
+    public static OffHeapItemStore open(Path directory) throws IOException {
+        FileChannel slotFile = FileChannel.open(directory.resolve("items.slots"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel arenaFile = FileChannel.open(directory.resolve("items.arena"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = slotFile.size() >= HEADER_SIZE;
+        OffHeapItemStore store = new OffHeapItemStore(new Region(slotFile), new Region(arenaFile));
+        if (existing) {
+            store.recover();
+        } else {
+            store.writeHeader();
+        }
+        return store;
+    }
+
+    //writes mapped regions back to their files
+    public void force() {
+        long stamp = lock.writeLock();
+        try {
+            slots.force();
+            arena.force();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long[] getJournalMark() {
+        if (!slots.isMapped()) {
+            return null;
+        }
+        long stamp = lock.readLock();
+        try {
+            if (slots.getInt(MARK_SET) != 1) {
+                return null;
+            }
+            long[] mark = new long[MARK_LENGTH];
+            for (int i = 0; i < MARK_LENGTH; i++) {
+                mark[i] = slots.getLong(MARK + 8 * i);
+            }
+            return mark;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void setJournalMark(long[] mark) {
+        if (!slots.isMapped()) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            slots.putInt(MARK_SET, 0);
+            if (mark != null) {
+                for (int i = 0; i < MARK_LENGTH; i++) {
+                    slots.putLong(MARK + 8 * i, mark[i]);
+                }
+                slots.putInt(MARK_SET, 1);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void attach(Library library) {
+        this.library = library;
+    }
+
+    @Override
+    public Item add(Item item) {
+        long stamp = lock.writeLock();
+        try {
+            int slot;
+            if (freeSlotCount > 0) {
+                slot = freeSlots[--freeSlotCount];
+            } else {
+                slot = slotCount++;
+                slots.ensure(slotPos(slotCount));
+            }
+            long pos = slotPos(slot);
+            slots.putInt(pos + ID, item.getId());
+            slots.putInt(pos + TYPE, item.getType());
+            slots.putLong(pos + TITLE, allocateString(item.getTitle()));
+            if (item instanceof Book) {
+                Book book = (Book) item;
+                slots.putLong(pos + AUTHOR, allocateString(book.getAuthor()));
+                slots.putInt(pos + PAGE_COUNT, book.getPageCount());
+                slots.putInt(pos + YEAR, book.getYear());
+                slots.putInt(pos + KIND, KIND_BOOK);
+            } else {
+                slots.putLong(pos + AUTHOR, NO_STRING);
+                slots.putInt(pos + KIND, KIND_ITEM);
+            }
+            slotsById.put(item.getId(), slot);
+            writeHeader();
+            return view(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Item get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            //the view is only built once the fields it is built from are validated
+            int slot = slotsById.get(id, -1);
+            int type = slot >= 0 ? slots.getInt(slotPos(slot) + TYPE) : 0;
+            boolean book = slot >= 0 && slots.getInt(slotPos(slot) + KIND) == KIND_BOOK;
+            if (lock.validate(stamp)) {
+                return slot >= 0 ? view(id, type, book) : null;
+            }
+        } catch (RuntimeException e) {
+            //read a half-written slot, the locked read below decides
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            return slot >= 0 ? view(slot) : null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            boolean found = slotsById.containsKey(id);
+            if (lock.validate(stamp)) {
+                return found;
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            return slotsById.containsKey(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot < 0) {
+                return;
+            }
+            long pos = slotPos(slot);
+            freeString(slots.getLong(pos + TITLE));
+            freeString(slots.getLong(pos + AUTHOR));
+            slots.putInt(pos + KIND, KIND_FREE);
+            slotsById.remove(id);
+            pushFreeSlot(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = slotsById.size();
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return slotsById.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<Item> items() {
+        long stamp = lock.readLock();
+        try {
+            long[] order = new long[slotsById.size()];
+            int count = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                long pos = slotPos(slot);
+                if (slots.getInt(pos + KIND) != KIND_FREE) {
+                    order[count++] = ((long) slots.getInt(pos + ID) << 32) | slot;
+                }
+            }
+            Arrays.sort(order, 0, count);
+            List<Item> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(view((int) order[i]));
+            }
+            return items;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Item view(int slot) {
+        long pos = slotPos(slot);
+        return view(slots.getInt(pos + ID), slots.getInt(pos + TYPE), slots.getInt(pos + KIND) == KIND_BOOK);
+    }
+
+    private Item view(int id, int type, boolean book) {
+        Item item = book ? new StoredBook(id, type) : new StoredItem(id, type);
+        item.library = library;
+        return item;
+    }
+
+    private static long slotPos(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    private void writeHeader() {
+        slots.ensure(HEADER_SIZE);
+        slots.putInt(0, MAGIC);
+        slots.putInt(4, VERSION);
+        slots.putInt(8, slotCount);
+        slots.putLong(16, arenaTop);
+    }
+
+    //rebuilds the id map and free lists from the slots and arena on disk
+    private void recover() throws IOException {
+        slots.ensure(HEADER_SIZE);
+        if (slots.getInt(0) != MAGIC || slots.getInt(4) != VERSION) {
+            throw new IOException("Unrecognised off-heap store");
+        }
+        slotCount = slots.getInt(8);
+        arenaTop = slots.getLong(16);
+        slots.ensure(slotPos(slotCount));
+        arena.ensure(arenaTop);
+        for (int slot = 0; slot < slotCount; slot++) {
+            long pos = slotPos(slot);
+            if (slots.getInt(pos + KIND) == KIND_FREE) {
+                pushFreeSlot(slot);
+            } else {
+                slotsById.put(slots.getInt(pos + ID), slot);
+            }
+        }
+        for (long chunk = 0; chunk < arenaTop; ) {
+            int sizeClass = arena.getInt(chunk);
+            if (arena.getInt(chunk + 4) < 0) {
+                pushFreeChunk(sizeClass, chunk);
+            }
+            chunk += (long) MIN_CHUNK << sizeClass;
+        }
+    }
+
+    private void pushFreeSlot(int slot) {
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    private long allocateString(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int sizeClass = 0;
+        while (((long) MIN_CHUNK << sizeClass) < bytes.length + 8L) {
+            sizeClass++;
+        }
+        long chunk;
+        if (freeChunkCounts[sizeClass] > 0) {
+            chunk = freeChunks[sizeClass][--freeChunkCounts[sizeClass]];
+        } else {
+            long size = (long) MIN_CHUNK << sizeClass;
+            //chunks never straddle a region segment, pad to the next one instead
+            long segmentLeft = Region.SEGMENT_SIZE - (arenaTop & (Region.SEGMENT_SIZE - 1));
+            if (size > segmentLeft && size <= Region.SEGMENT_SIZE) {
+                while (segmentLeft >= MIN_CHUNK) {
+                    int padClass = 63 - Long.numberOfLeadingZeros(segmentLeft / MIN_CHUNK);
+                    arena.ensure(arenaTop + ((long) MIN_CHUNK << padClass));
+                    arena.putInt(arenaTop, padClass);
+                    arena.putInt(arenaTop + 4, -1);
+                    pushFreeChunk(padClass, arenaTop);
+                    arenaTop += (long) MIN_CHUNK << padClass;
+                    segmentLeft -= (long) MIN_CHUNK << padClass;
+                }
+            }
+            chunk = arenaTop;
+            arenaTop += size;
+            arena.ensure(arenaTop);
+            arena.putInt(chunk, sizeClass);
+        }
+        arena.putInt(chunk + 4, bytes.length);
+        arena.putBytes(chunk + 8, bytes);
+        return chunk;
+    }
+
+    private void freeString(long chunk) {
+        if (chunk == NO_STRING) {
+            return;
+        }
+        arena.putInt(chunk + 4, -1);
+        pushFreeChunk(arena.getInt(chunk), chunk);
+    }
+
+    private void pushFreeChunk(int sizeClass, long chunk) {
+        long[] free = freeChunks[sizeClass];
+        if (free == null) {
+            free = new long[16];
+        } else if (freeChunkCounts[sizeClass] == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        freeChunks[sizeClass] = free;
+        free[freeChunkCounts[sizeClass]++] = chunk;
+    }
+
+    private String readString(int id, int field) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int slot = slotsById.get(id, -1);
+            long chunk = slot >= 0 ? slots.getLong(slotPos(slot) + field) : NO_STRING;
+            int length = chunk != NO_STRING ? arena.getInt(chunk + 4) : 0;
+            //the length is checked before it sizes an array, then the bytes
+            //copied are checked again
+            if (lock.validate(stamp)) {
+                if (chunk == NO_STRING) {
+                    return null;
+                }
+                byte[] bytes = arena.getBytes(chunk + 8, length);
+                if (lock.validate(stamp)) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot < 0) {
+                return null;
+            }
+            long chunk = slots.getLong(slotPos(slot) + field);
+            if (chunk == NO_STRING) {
+                return null;
+            }
+            return new String(arena.getBytes(chunk + 8, arena.getInt(chunk + 4)), StandardCharsets.UTF_8);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void writeString(int id, int field, String value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot >= 0) {
+                long pos = slotPos(slot) + field;
+                freeString(slots.getLong(pos));
+                slots.putLong(pos, allocateString(value));
+                writeHeader();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int readInt(int id, int field) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int slot = slotsById.get(id, -1);
+            int value = slot >= 0 ? slots.getInt(slotPos(slot) + field) : 0;
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        } catch (RuntimeException e) {
+            //as in get
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            return slot >= 0 ? slots.getInt(slotPos(slot) + field) : 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void writeInt(int id, int field, int value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotsById.get(id, -1);
+            if (slot >= 0) {
+                slots.putInt(slotPos(slot) + field, value);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private class StoredItem extends Item {
+        StoredItem(int id, int type) {
+            super(id, null, type);
+        }
+
+        @Override
+        public String getTitle() {
+            return readString(id, TITLE);
+        }
+
+        @Override
+        void assignTitle(String title) {
+            writeString(id, TITLE, title);
+        }
+    }
+
+    private class StoredBook extends Book {
+        StoredBook(int id, int type) {
+            super(id, null, null, type, 0, 0);
+        }
+
+        @Override
+        public String getTitle() {
+            return readString(id, TITLE);
+        }
+
+        @Override
+        void assignTitle(String title) {
+            writeString(id, TITLE, title);
+        }
+
+        @Override
+        public String getAuthor() {
+            return readString(id, AUTHOR);
+        }
+
+        @Override
+        void assignAuthor(String author) {
+            writeString(id, AUTHOR, author);
+        }
+
+        @Override
+        public int getPageCount() {
+            return readInt(id, PAGE_COUNT);
+        }
+
+        @Override
+        void assignPageCount(int pageCount) {
+            writeInt(id, PAGE_COUNT, pageCount);
+        }
+
+        @Override
+        public int getYear() {
+            return readInt(id, YEAR);
+        }
+
+        @Override
+        void assignYear(int year) {
+            writeInt(id, YEAR, year);
+        }
+    }
+
+    //long-addressed memory made of fixed-size direct or mapped segments, so a
+    //region can pass the 2 GB limit of a single buffer. Ints and longs are
+    //written at aligned offsets and never straddle two segments
+    private static class Region {
+        static final long SEGMENT_SIZE = 1L << 26;
+        private static final int SEGMENT_MASK = (int) SEGMENT_SIZE - 1;
+
+        private final FileChannel file;
+        private ByteBuffer[] segments = new ByteBuffer[0];
+
+        Region(FileChannel file) {
+            this.file = file;
+        }
+
+        boolean isMapped() {
+            return file != null;
+        }
+
+        void ensure(long size) {
+            int needed = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            if (needed <= segments.length) {
+                return;
+            }
+            ByteBuffer[] grown = Arrays.copyOf(segments, needed);
+            for (int i = segments.length; i < needed; i++) {
+                try {
+                    grown[i] = file != null
+                            ? file.map(FileChannel.MapMode.READ_WRITE, i * SEGMENT_SIZE, SEGMENT_SIZE)
+                            : ByteBuffer.allocateDirect((int) SEGMENT_SIZE);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot grow off-heap store", e);
+                }
+                grown[i].order(ByteOrder.nativeOrder());
+            }
+            segments = grown;
+        }
+
+        int getInt(long pos) {
+            return segments[(int) (pos >>> 26)].getInt((int) pos & SEGMENT_MASK);
+        }
+
+        void putInt(long pos, int value) {
+            segments[(int) (pos >>> 26)].putInt((int) pos & SEGMENT_MASK, value);
+        }
+
+        long getLong(long pos) {
+            return segments[(int) (pos >>> 26)].getLong((int) pos & SEGMENT_MASK);
+        }
+
+        void putLong(long pos, long value) {
+            segments[(int) (pos >>> 26)].putLong((int) pos & SEGMENT_MASK, value);
+        }
+
+        byte[] getBytes(long pos, int length) {
+            byte[] bytes = new byte[length];
+            segments[(int) (pos >>> 26)].get((int) pos & SEGMENT_MASK, bytes);
+            return bytes;
+        }
+
+        void putBytes(long pos, byte[] bytes) {
+            segments[(int) (pos >>> 26)].put((int) pos & SEGMENT_MASK, bytes);
+        }
+
+        void force() {
+            for (ByteBuffer segment : segments) {
+                if (segment instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) segment).force();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package test;
+
+//JMX view of one operation's OperationMetrics, times in microseconds
+public interface OperationMetricsMBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,310 @@
+package test;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+//immutable map from non-negative int keys to values: a 32-way radix trie on
+//the key bits. with/without copy only the path to the key (a few 32-slot
+//arrays) and share the rest, so every version stays valid and costs almost
+//nothing to keep. Nodes count the values below them, which gives rank
+//access (valueAt) in key order. An Editor applies a batch in place on nodes
+//it created itself, so a bulk change copies each node at most once
+final class PersistentIntMap<V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    //root shift that covers every non-negative int
+    private static final int MAX_SHIFT = 30;
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Node(new Object[WIDTH], 0, null), 0);
+
+    private final Node root;
+    //keys below 1 << (shift + BITS) fit under root
+    private final int shift;
+
+    private static final class Node {
+        Object[] slots;
+        int size;
+        //the Editor that created this node and may still change it
+        Object edit;
+
+        Node(Object[] slots, int size, Object edit) {
+            this.slots = slots;
+            this.size = size;
+            this.edit = edit;
+        }
+    }
+
+    private PersistentIntMap(Node root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return root.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key < 0 || (shift < MAX_SHIFT && key >>> (shift + BITS) != 0)) {
+            return null;
+        }
+        Node node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            node = (Node) node.slots[(key >>> s) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (V) node.slots[key & MASK];
+    }
+
+    public PersistentIntMap<V> with(int key, V value) {
+        Editor<V> editor = new Editor<>(this, false);
+        editor.put(key, value);
+        return editor.done();
+    }
+
+    public PersistentIntMap<V> without(int key) {
+        if (get(key) == null) {
+            return this;
+        }
+        Editor<V> editor = new Editor<>(this, false);
+        editor.remove(key);
+        return editor.done();
+    }
+
+    public Editor<V> editor() {
+        return new Editor<>(this, true);
+    }
+
+    //the index-th value in key order
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        if (index < 0 || index >= root.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + root.size);
+        }
+        Node node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            for (Object slot : node.slots) {
+                Node child = (Node) slot;
+                if (child == null) {
+                    continue;
+                }
+                if (index < child.size) {
+                    node = child;
+                    break;
+                }
+                index -= child.size;
+            }
+        }
+        for (Object value : node.slots) {
+            if (value != null && index-- == 0) {
+                return (V) value;
+            }
+        }
+        throw new IllegalStateException("Node sizes out of step");
+    }
+
+    public void forEach(Consumer<? super V> action) {
+        forEach(root, shift, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEach(Node node, int shift, Consumer<? super V> action) {
+        for (Object slot : node.slots) {
+            if (slot == null) {
+                continue;
+            }
+            if (shift == 0) {
+                action.accept((V) slot);
+            } else {
+                forEach((Node) slot, shift - BITS, action);
+            }
+        }
+    }
+
+    //values with keys from first to last inclusive, in key order; only the
+    //subtrees overlapping the range are visited
+    public void forEachInRange(int first, int last, Consumer<? super V> action) {
+        if (first <= last) {
+            forEachInRange(root, shift, 0, first, last, action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEachInRange(Node node, int shift, long base, int first, int last, Consumer<? super V> action) {
+        for (int i = 0; i < WIDTH; i++) {
+            long low = base + ((long) i << shift);
+            long high = low + (1L << shift) - 1;
+            if (high < first) {
+                continue;
+            }
+            if (low > last) {
+                return;
+            }
+            Object slot = node.slots[i];
+            if (slot == null) {
+                continue;
+            }
+            if (shift == 0) {
+                action.accept((V) slot);
+            } else {
+                forEachInRange((Node) slot, shift - BITS, low, first, last, action);
+            }
+        }
+    }
+
+    //values in key order
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            //path from the root to the current leaf and the next slot at each level
+            private final Node[] nodes = new Node[MAX_SHIFT / BITS + 1];
+            private final int[] positions = new int[nodes.length];
+            private int depth;
+            private Object next;
+
+            {
+                nodes[0] = root;
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                int leaf = shift / BITS;
+                while (depth >= 0) {
+                    if (positions[depth] == WIDTH) {
+                        depth--;
+                        continue;
+                    }
+                    Object slot = nodes[depth].slots[positions[depth]++];
+                    if (slot == null) {
+                        continue;
+                    }
+                    if (depth == leaf) {
+                        next = slot;
+                        return;
+                    }
+                    depth++;
+                    nodes[depth] = (Node) slot;
+                    positions[depth] = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                V value = (V) next;
+                advance();
+                return value;
+            }
+        };
+    }
+
+    //builds the next version from a base one. Not thread-safe; the base and
+    //everything shared with it are never touched
+    static final class Editor<V> {
+        private Node root;
+        private int shift;
+        //tags nodes this editor created; null once done
+        private Object edit;
+
+        private Editor(PersistentIntMap<V> base, boolean transientNodes) {
+            this.root = base.root;
+            this.shift = base.shift;
+            //a single with/without copies its path anyway, tagging would only keep garbage alive
+            this.edit = transientNodes ? new Object() : null;
+        }
+
+        public void put(int key, V value) {
+            if (key < 0) {
+                throw new IllegalArgumentException("Negative key: " + key);
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Null value for key " + key);
+            }
+            while (shift < MAX_SHIFT && key >>> (shift + BITS) != 0) {
+                Object[] slots = new Object[WIDTH];
+                if (root.size > 0) {
+                    slots[0] = root;
+                }
+                root = new Node(slots, root.size, edit);
+                shift += BITS;
+            }
+            root = put(root, shift, key, value);
+        }
+
+        private Node put(Node node, int shift, int key, Object value) {
+            Node copy = editable(node);
+            int i = (key >>> shift) & MASK;
+            if (shift == 0) {
+                if (copy.slots[i] == null) {
+                    copy.size++;
+                }
+                copy.slots[i] = value;
+            } else {
+                Node child = (Node) copy.slots[i];
+                int before = child != null ? child.size : 0;
+                Node updated = put(child, shift - BITS, key, value);
+                copy.size += updated.size - before;
+                copy.slots[i] = updated;
+            }
+            return copy;
+        }
+
+        public void remove(int key) {
+            if (new PersistentIntMap<V>(root, shift).get(key) != null) {
+                root = remove(root, shift, key);
+            }
+        }
+
+        //key is known to be present
+        private Node remove(Node node, int shift, int key) {
+            Node copy = editable(node);
+            int i = (key >>> shift) & MASK;
+            if (shift > 0) {
+                Node updated = remove((Node) copy.slots[i], shift - BITS, key);
+                copy.slots[i] = updated.size > 0 ? updated : null;
+            } else {
+                copy.slots[i] = null;
+            }
+            copy.size--;
+            return copy;
+        }
+
+        private Node editable(Node node) {
+            if (node == null) {
+                return new Node(new Object[WIDTH], 0, edit);
+            }
+            if (edit != null && node.edit == edit) {
+                return node;
+            }
+            return new Node(node.slots.clone(), node.size, edit);
+        }
+
+        //the editor can not be used afterwards
+        public PersistentIntMap<V> done() {
+            if (root == null) {
+                throw new IllegalStateException("Editor already done");
+            }
+            PersistentIntMap<V> map = new PersistentIntMap<>(root, shift);
+            root = null;
+            edit = null;
+            return map;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.JPanel;
+
+//live bar chart of the most viewed books. Library events only set a flag.
+//A background thread wakes at most every FRAME_MILLIS, fetches the top
+//entries and redraws just the rows whose bar changed into one of two back
+//buffers, then hands that buffer to the EDT and repaints those rows.
+//paintComponent only copies the image, so thousands of views a second cost
+//the EDT a few small blits. The scale moves in 1-2-5 steps, so a new top
+//count does not redraw every bar each time
+class PopularityChart extends JPanel implements LibraryListener {
+    private static final int BARS = 10;
+    private static final long FRAME_MILLIS = 100;
+    //trending counts drop as time passes, even without any events
+    private static final long TRENDING_REFRESH_MILLIS = 1000;
+    private static final int LABEL_WIDTH = 120;
+    private static final Color BAR_COLOR = new Color(70, 130, 180);
+
+    private final Library library;
+    private final AtomicBoolean changed;
+    //0 for all time, otherwise the trending window
+    private volatile int periodMinutes;
+    //copied from the EDT so the renderer never asks Swing
+    private volatile int width;
+    private volatile int height;
+    private volatile Color background;
+    private volatile Font font;
+    private volatile Buffer front;
+    private ScheduledExecutorService renderer; //only touched on the EDT
+
+    //render thread only
+    private final Buffer[] buffers;
+    private int next;
+    private long lastRender;
+
+    //one row as drawn
+    private static final class Bar {
+        final int id;
+        final String title;
+        final long count;
+
+        Bar(int id, String title, long count) {
+            this.id = id;
+            this.title = title;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Bar)) {
+                return false;
+            }
+            Bar bar = (Bar) other;
+            return id == bar.id && count == bar.count && title.equals(bar.title);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, title, count);
+        }
+    }
+
+    //an image and the rows and scale it shows; locked while drawn or painted
+    private static final class Buffer {
+        final BufferedImage image;
+        final Bar[] shown = new Bar[BARS];
+        //0 when showing the empty message, -1 before the first frame
+        long scale = -1;
+
+        Buffer(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    public PopularityChart(Library library) {
+        this.library = library;
+        this.changed = new AtomicBoolean(true);
+        this.buffers = new Buffer[2];
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                width = getWidth();
+                height = getHeight();
+                changed.set(true);
+            }
+        });
+    }
+
+    //0 shows all-time views, otherwise views in the last minutes minutes
+    public void setPeriodMinutes(int minutes) {
+        periodMinutes = minutes;
+        changed.set(true);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        background = getBackground();
+        font = getFont();
+        library.addLibraryListener(this);
+        renderer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chart-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renderer.scheduleWithFixedDelay(() -> {
+            try {
+                render();
+            } catch (RuntimeException e) {
+                System.err.println("Error rendering popularity chart: " + e.getMessage());
+            }
+        }, 0, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void removeNotify() {
+        library.removeLibraryListener(this);
+        renderer.shutdownNow();
+        super.removeNotify();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Buffer shown = front;
+        if (shown != null) {
+            synchronized (shown) {
+                g.drawImage(shown.image, 0, 0, null);
+            }
+        }
+    }
+
+    private void render() {
+        long now = System.currentTimeMillis();
+        int minutes = periodMinutes;
+        boolean due = minutes > 0 && now - lastRender >= TRENDING_REFRESH_MILLIS;
+        if (!changed.getAndSet(false) && !due) {
+            return;
+        }
+        int w = width;
+        int h = height;
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        lastRender = now;
+
+        List<TopKTracker.Entry> top = minutes > 0 ? library.getTrendingBooks(BARS, minutes) : library.getPopularity().getMostViewed(BARS);
+        Bar[] bars = new Bar[BARS];
+        for (int i = 0; i < top.size() && i < BARS; i++) {
+            TopKTracker.Entry entry = top.get(i);
+            Item item = library.getItemById(entry.getId());
+            bars[i] = new Bar(entry.getId(), item != null ? item.getTitle() : "#" + entry.getId(), entry.getCount());
+        }
+        long scale = top.isEmpty() ? 0 : niceScale(top.get(0).getCount());
+
+        Buffer buffer = buffers[next];
+        if (buffer == null || buffer.image.getWidth() != w || buffer.image.getHeight() != h) {
+            buffer = new Buffer(w, h);
+            buffers[next] = buffer;
+        }
+        Buffer previous = front;
+        boolean redrawAll = buffer.scale != scale;
+        boolean repaintAll = redrawAll || previous == null || previous.scale != scale || previous.image.getWidth() != w || previous.image.getHeight() != h;
+        int rowHeight = h / BARS;
+        int firstDirty = BARS;
+        int lastDirty = -1;
+        synchronized (buffer) {
+            Graphics2D g = buffer.image.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setFont(font);
+                if (redrawAll) {
+                    g.setColor(background);
+                    g.fillRect(0, 0, w, h);
+                }
+                if (scale == 0) {
+                    if (redrawAll) {
+                        g.setColor(Color.BLACK);
+                        g.drawString("No books have been viewed in this period.", 10, 20);
+                    }
+                } else {
+                    for (int row = 0; row < BARS; row++) {
+                        if (redrawAll || !Objects.equals(buffer.shown[row], bars[row])) {
+                            drawRow(g, row, bars[row], scale, w, rowHeight);
+                        }
+                        //rows that differ from what is on screen need a repaint, even
+                        //when this buffer already had them from two frames ago
+                        if (previous == null || !Objects.equals(previous.shown[row], bars[row])) {
+                            firstDirty = Math.min(firstDirty, row);
+                            lastDirty = row;
+                        }
+                    }
+                }
+                System.arraycopy(bars, 0, buffer.shown, 0, BARS);
+                buffer.scale = scale;
+            } finally {
+                g.dispose();
+            }
+        }
+        next = 1 - next;
+        front = buffer;
+        //repaint may be called from any thread
+        if (repaintAll) {
+            repaint();
+        } else if (lastDirty >= 0) {
+            repaint(0, firstDirty * rowHeight, w, (lastDirty - firstDirty + 1) * rowHeight);
+        }
+    }
+
+    private void drawRow(Graphics2D g, int row, Bar bar, long scale, int w, int rowHeight) {
+        int y = row * rowHeight;
+        g.setColor(background);
+        g.fillRect(0, y, w, rowHeight);
+        if (bar == null) {
+            return;
+        }
+        FontMetrics metrics = g.getFontMetrics();
+        int baseline = y + (rowHeight + metrics.getAscent() - metrics.getDescent()) / 2;
+        int barWidth = (int) ((w - LABEL_WIDTH - 40) * bar.count / scale);
+        g.setColor(Color.BLACK);
+        g.setClip(0, y, LABEL_WIDTH - 5, rowHeight);
+        g.drawString(bar.title, 5, baseline);
+        g.setClip(null);
+        g.setColor(BAR_COLOR);
+        g.fillRect(LABEL_WIDTH, y + 2, barWidth, rowHeight - 4);
+        g.setColor(Color.BLACK);
+        g.drawString(String.valueOf(bar.count), LABEL_WIDTH + barWidth + 5, baseline);
+    }
+
+    //smallest 1, 2 or 5 times a power of ten that is at least max
+    static long niceScale(long max) {
+        long step = 1;
+        while (true) {
+            for (long factor : new long[]{1, 2, 5}) {
+                if (step * factor >= max) {
+                    return step * factor;
+                }
+            }
+            step *= 10;
+        }
+    }
+
+    private void markChanged() {
+        //views arrive by the thousand, the read keeps them off the flag's cache line
+        if (!changed.get()) {
+            changed.set(true);
+        }
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        markChanged();
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        markChanged();
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        markChanged();
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        markChanged();
+    }
+}
@@ -0,0 +1,98 @@
+package test;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+//view counts keyed by item id, one striped LongAdder per item so concurrent
+//views of the same book never fight over a single cache line or lock. All-time
+//counts never shrink; trending keeps the recent ones
+class PopularityTracker {
+    private static final int TOP_CAPACITY = 20;
+
+    private final IntObjectMap<LongAdder> counters;
+    private final TopKTracker topK;
+    private final TrendingTracker trending;
+
+    public PopularityTracker() {
+        this(new TrendingTracker());
+    }
+
+    public PopularityTracker(TrendingTracker trending) {
+        counters = new IntObjectMap<>();
+        topK = new TopKTracker(this, TOP_CAPACITY);
+        this.trending = trending;
+    }
+
+    public long recordView(int id) {
+        LongAdder counter = counterFor(id);
+        counter.increment();
+        trending.record(id);
+        long count = counter.sum();
+        topK.offer(id, count);
+        return count;
+    }
+
+    //replayed counts are absolute, so restoring the same record twice is harmless.
+    //The journal has no view times, so restored views never count as trending
+    public void restore(int id, long count) {
+        LongAdder counter = counterFor(id);
+        long missing = count - counter.sum();
+        if (missing > 0) {
+            counter.add(missing);
+            topK.offer(id, count);
+        }
+    }
+
+    public long getCount(int id) {
+        LongAdder counter = counters.get(id);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    //views in the last minutes minutes, at most the trending window
+    public long getRecentCount(int id, int minutes) {
+        return trending.getViews(id, minutes);
+    }
+
+    public void remove(int id) {
+        counters.remove(id);
+        topK.remove(id);
+        trending.remove(id);
+    }
+
+    public void removeAll(int[] ids) {
+        for (int id : ids) {
+            counters.remove(id);
+        }
+        topK.removeAll(ids);
+        trending.removeAll(ids);
+    }
+
+    public List<TopKTracker.Entry> getMostViewed(int n) {
+        return topK.top(n);
+    }
+
+    public List<TopKTracker.Entry> getTrending(int n, int minutes) {
+        return trending.getTrending(n, minutes);
+    }
+
+    public TrendingTracker getTrendingTracker() {
+        return trending;
+    }
+
+    //every id with a counter, including ones that only have old views
+    void forEachCount(IntObjectMap.Visitor<LongAdder> visitor) {
+        counters.forEach(visitor);
+    }
+
+    private LongAdder counterFor(int id) {
+        LongAdder counter = counters.get(id);
+        if (counter == null) {
+            LongAdder added = new LongAdder();
+            counter = counters.putIfAbsent(id, added);
+            if (counter == null) {
+                counter = added;
+            }
+        }
+        return counter;
+    }
+}
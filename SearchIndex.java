@@ -0,0 +1,218 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//inverted index from lower-cased title and author words to item ids. Terms
+//are kept sorted so a prefix is a range scan, which is what type-ahead uses:
+//every word of a query must match exactly except the last, which may be a
+//prefix. Kept up to date through Library events
+class SearchIndex implements LibraryListener {
+    private final Library library;
+    private final ConcurrentSkipListMap<String, Set<Integer>> postings;
+    private final Map<Integer, String[]> itemTerms;
+
+    public SearchIndex(Library library) {
+        this.library = library;
+        this.postings = new ConcurrentSkipListMap<>();
+        this.itemTerms = new ConcurrentHashMap<>();
+        library.addLibraryListener(this);
+        for (Item item : library.getItems()) {
+            index(item);
+        }
+    }
+
+    public List<Item> search(String query, int limit) {
+        String[] words = tokenize(query);
+        if (words.length == 0) {
+            return Collections.emptyList();
+        }
+        String prefix = words[words.length - 1];
+        List<Item> results = new ArrayList<>();
+        if (words.length == 1) {
+            //walk the matching terms in order until enough items are found
+            for (Set<Integer> ids : prefixRange(prefix).values()) {
+                for (int id : ids) {
+                    addResult(results, id, words);
+                    if (results.size() >= limit) {
+                        return results;
+                    }
+                }
+            }
+            return results;
+        }
+        //exact words narrow the search through their posting sets; the prefix
+        //word is expanded instead when its terms cover fewer items
+        List<Set<Integer>> exact = new ArrayList<>();
+        Set<Integer> smallest = null;
+        for (int i = 0; i < words.length - 1; i++) {
+            Set<Integer> ids = postings.get(words[i]);
+            if (ids == null || ids.isEmpty()) {
+                return results;
+            }
+            exact.add(ids);
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        NavigableMap<String, Set<Integer>> prefixTerms = prefixRange(prefix);
+        long prefixSize = 0;
+        for (Set<Integer> ids : prefixTerms.values()) {
+            prefixSize += ids.size();
+            if (prefixSize >= smallest.size()) {
+                break;
+            }
+        }
+        if (prefixSize < smallest.size()) {
+            for (Set<Integer> ids : prefixTerms.values()) {
+                for (int id : ids) {
+                    if (containsAll(exact, id)) {
+                        addResult(results, id, words);
+                        if (results.size() >= limit) {
+                            return results;
+                        }
+                    }
+                }
+            }
+            return results;
+        }
+        for (int id : smallest) {
+            if (containsAll(exact, id)) {
+                addResult(results, id, words);
+                if (results.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private static boolean containsAll(List<Set<Integer>> sets, int id) {
+        for (Set<Integer> ids : sets) {
+            if (!ids.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //indexed words starting with prefix, in order, for autocomplete
+    public List<String> complete(String prefix, int limit) {
+        List<String> terms = new ArrayList<>();
+        String[] words = tokenize(prefix);
+        if (words.length == 0) {
+            return terms;
+        }
+        for (Map.Entry<String, Set<Integer>> entry : prefixRange(words[words.length - 1]).entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                terms.add(entry.getKey());
+                if (terms.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return terms;
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        index(item);
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        unindex(item.getId());
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        unindex(item.getId());
+        index(item);
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+    }
+
+    private void addResult(List<Item> results, int id, String[] words) {
+        String[] terms = itemTerms.get(id);
+        Item item = library.getItemById(id);
+        if (terms == null || item == null) {
+            return;
+        }
+        for (Item result : results) {
+            if (result.getId() == id) {
+                return;
+            }
+        }
+        for (int i = 0; i < words.length; i++) {
+            boolean last = i == words.length - 1;
+            boolean found = false;
+            for (String term : terms) {
+                if (last ? term.startsWith(words[i]) : term.equals(words[i])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return;
+            }
+        }
+        results.add(item);
+    }
+
+    private NavigableMap<String, Set<Integer>> prefixRange(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void index(Item item) {
+        String text = item instanceof Book ? item.getTitle() + " " + ((Book) item).getAuthor() : item.getTitle();
+        String[] terms = tokenize(text);
+        itemTerms.put(item.getId(), terms);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, k -> ConcurrentHashMap.newKeySet()).add(item.getId());
+        }
+    }
+
+    //empty posting sets are left in place, they cost one map entry per word
+    private void unindex(int id) {
+        String[] terms = itemTerms.remove(id);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Set<Integer> ids = postings.get(term);
+            if (ids != null) {
+                ids.remove(id);
+            }
+        }
+    }
+
+    //lower-cased runs of letters and digits, duplicates removed
+    static String[] tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return new String[0];
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = text.substring(start, i).toLowerCase();
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+}
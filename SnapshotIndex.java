@@ -0,0 +1,96 @@
+package test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+//keeps the latest LibrarySnapshot current through Library events. Every
+//event swaps in a new version with a compare-and-set, so writers on
+//different stripes never wait for each other or for readers
+class SnapshotIndex implements LibraryListener {
+    private final AtomicReference<LibrarySnapshot> current;
+
+    public SnapshotIndex(LibrarySnapshot initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    public LibrarySnapshot get() {
+        return current.get();
+    }
+
+    @Override
+    public void itemAdded(Item item) {
+        put(LibrarySnapshot.freeze(item));
+    }
+
+    @Override
+    public void itemUpdated(Item item) {
+        put(LibrarySnapshot.freeze(item));
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        while (true) {
+            LibrarySnapshot old = current.get();
+            PersistentIntMap<Item> items = old.map().without(item.getId());
+            if (items == old.map() || current.compareAndSet(old, new LibrarySnapshot(items, old.getVersion() + 1))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void itemViewed(Item item, long viewCount) {
+        //views are not part of a snapshot
+    }
+
+    @Override
+    public void itemsAdded(List<Item> items) {
+        putAll(items);
+    }
+
+    @Override
+    public void itemsUpdated(List<Item> items) {
+        putAll(items);
+    }
+
+    @Override
+    public void itemsRemoved(List<Item> items) {
+        while (true) {
+            LibrarySnapshot old = current.get();
+            PersistentIntMap.Editor<Item> editor = old.map().editor();
+            for (Item item : items) {
+                editor.remove(item.getId());
+            }
+            if (current.compareAndSet(old, new LibrarySnapshot(editor.done(), old.getVersion() + 1))) {
+                return;
+            }
+        }
+    }
+
+    private void put(Item frozen) {
+        while (true) {
+            LibrarySnapshot old = current.get();
+            PersistentIntMap<Item> items = old.map().with(frozen.getId(), frozen);
+            if (current.compareAndSet(old, new LibrarySnapshot(items, old.getVersion() + 1))) {
+                return;
+            }
+        }
+    }
+
+    private void putAll(List<Item> items) {
+        Item[] frozen = new Item[items.size()];
+        for (int i = 0; i < frozen.length; i++) {
+            frozen[i] = LibrarySnapshot.freeze(items.get(i));
+        }
+        while (true) {
+            LibrarySnapshot old = current.get();
+            PersistentIntMap.Editor<Item> editor = old.map().editor();
+            for (Item item : frozen) {
+                editor.put(item.getId(), item);
+            }
+            if (current.compareAndSet(old, new LibrarySnapshot(editor.done(), old.getVersion() + 1))) {
+                return;
+            }
+        }
+    }
+}
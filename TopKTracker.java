@@ -0,0 +1,132 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//keeps the ids of the k most viewed items up to date as views come in.
+//counts only grow, so an outsider can only get in once its count passes the
+//smallest member count, which is cached in threshold for a lock-free fast path
+class TopKTracker {
+    private final int capacity;
+    private final PopularityTracker counts;
+    private final Set<Integer> members;
+    private volatile long threshold;
+
+    public TopKTracker(PopularityTracker counts, int capacity) {
+        this.counts = counts;
+        this.capacity = capacity;
+        this.members = ConcurrentHashMap.newKeySet();
+    }
+
+    public void offer(int id, long count) {
+        if (count <= threshold || members.contains(id)) {
+            return;
+        }
+        synchronized (this) {
+            if (members.contains(id)) {
+                return;
+            }
+            if (members.size() < capacity) {
+                members.add(id);
+            } else {
+                int minId = -1;
+                long min = Long.MAX_VALUE;
+                for (int member : members) {
+                    long memberCount = counts.getCount(member);
+                    if (memberCount < min) {
+                        min = memberCount;
+                        minId = member;
+                    }
+                }
+                if (count <= min) {
+                    threshold = min;
+                    return;
+                }
+                members.remove(minId);
+                members.add(id);
+            }
+            updateThreshold();
+        }
+    }
+
+    //only called when an item is deleted, falls back to a full pass to refill
+    public synchronized void remove(int id) {
+        if (members.remove(id)) {
+            refill();
+        }
+    }
+
+    //bulk deletes refill at most once
+    public synchronized void removeAll(int[] ids) {
+        boolean removed = false;
+        for (int id : ids) {
+            removed |= members.remove(id);
+        }
+        if (removed) {
+            refill();
+        }
+    }
+
+    private void refill() {
+        PriorityQueue<Entry> best = new PriorityQueue<>(Comparator.comparingLong(Entry::getCount));
+        counts.forEachCount((candidate, counter) -> {
+            best.add(new Entry(candidate, counter.sum()));
+            if (best.size() > capacity) {
+                best.poll();
+            }
+        });
+        members.clear();
+        for (Entry entry : best) {
+            members.add(entry.getId());
+        }
+        updateThreshold();
+    }
+
+    //O(k log k) over the members, never touches the rest of the catalogue
+    public List<Entry> top(int n) {
+        List<Entry> entries = new ArrayList<>(capacity);
+        for (int member : members) {
+            entries.add(new Entry(member, counts.getCount(member)));
+        }
+        entries.sort(Comparator.comparingLong(Entry::getCount).reversed());
+        return entries.size() > n ? entries.subList(0, n) : entries;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void updateThreshold() {
+        if (members.size() < capacity) {
+            threshold = 0;
+            return;
+        }
+        long min = Long.MAX_VALUE;
+        for (int member : members) {
+            min = Math.min(min, counts.getCount(member));
+        }
+        threshold = min;
+    }
+
+    static class Entry {
+        private final int id;
+        private final long count;
+
+        Entry(int id, long count) {
+            this.id = id;
+            this.count = count;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+//views per item over a sliding window: a ring of fixed-width time buckets,
+//each an id -> LongAdder map stamped with the absolute bucket (time /
+//bucketMillis) it counts. A view bumps its id's adder in the current bucket
+//without taking a lock. The first view to find a slot holding an expired
+//bucket swaps in a fresh one with a CAS on the slot, and the old counts go
+//with it. Readers add up the buckets still inside the span they ask for, so
+//memory depends on how many distinct items were viewed per bucket, never on
+//how many views there were
+class TrendingTracker {
+    private final long bucketMillis;
+    private final int bucketCount;
+    private final LongSupplier clock;
+    //null until the slot's first view
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    private static final class Bucket {
+        final long epoch;
+        final IntObjectMap<LongAdder> counts = new IntObjectMap<>();
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    //a one hour window in one minute buckets
+    public TrendingTracker() {
+        this(60_000, 60, System::currentTimeMillis);
+    }
+
+    public TrendingTracker(long bucketMillis, int bucketCount, LongSupplier clock) {
+        if (bucketMillis <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + bucketCount + " x " + bucketMillis + " ms");
+        }
+        this.bucketMillis = bucketMillis;
+        this.bucketCount = bucketCount;
+        this.clock = clock;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    public void record(int id) {
+        IntObjectMap<LongAdder> counts = current(currentBucket()).counts;
+        LongAdder counter = counts.get(id);
+        if (counter == null) {
+            LongAdder added = new LongAdder();
+            counter = counts.putIfAbsent(id, added);
+            if (counter == null) {
+                counter = added;
+            }
+        }
+        counter.increment();
+    }
+
+    //views of id in the last minutes minutes, rounded to whole buckets and
+    //capped at the window
+    public long getViews(int id, int minutes) {
+        int count = bucketsFor(minutes);
+        long now = currentBucket();
+        long views = 0;
+        for (int i = 0; i < count; i++) {
+            Bucket bucket = buckets.get(slot(now - i));
+            LongAdder counter = live(bucket, now, count) ? bucket.counts.get(id) : null;
+            if (counter != null) {
+                views += counter.sum();
+            }
+        }
+        return views;
+    }
+
+    //the n items with the most views in the last minutes minutes, most viewed first
+    public List<TopKTracker.Entry> getTrending(int n, int minutes) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        int count = bucketsFor(minutes);
+        long now = currentBucket();
+        IntIntMap totals = new IntIntMap(64);
+        for (int i = 0; i < count; i++) {
+            Bucket bucket = buckets.get(slot(now - i));
+            if (live(bucket, now, count)) {
+                bucket.counts.forEach((id, counter) -> totals.put(id, totals.get(id, 0) + (int) counter.sum()));
+            }
+        }
+        PriorityQueue<TopKTracker.Entry> best = new PriorityQueue<>(Comparator.comparingLong(TopKTracker.Entry::getCount));
+        totals.forEach((id, views) -> {
+            if (views <= 0) {
+                return;
+            }
+            if (best.size() < n) {
+                best.add(new TopKTracker.Entry(id, views));
+            } else if (views > best.peek().getCount()) {
+                best.poll();
+                best.add(new TopKTracker.Entry(id, views));
+            }
+        });
+        List<TopKTracker.Entry> entries = new ArrayList<>(best);
+        entries.sort(Comparator.comparingLong(TopKTracker.Entry::getCount).reversed());
+        return entries;
+    }
+
+    //a view racing with this may count the id again in the current bucket
+    public void remove(int id) {
+        for (int i = 0; i < bucketCount; i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null) {
+                bucket.counts.remove(id);
+            }
+        }
+    }
+
+    public void removeAll(int[] ids) {
+        for (int id : ids) {
+            remove(id);
+        }
+    }
+
+    public int getWindowMinutes() {
+        return (int) (bucketMillis * bucketCount / 60_000);
+    }
+
+    private int bucketsFor(int minutes) {
+        if (minutes <= 0) {
+            throw new IllegalArgumentException("Invalid minutes: " + minutes);
+        }
+        long count = ((long) minutes * 60_000 + bucketMillis - 1) / bucketMillis;
+        return (int) Math.min(count, bucketCount);
+    }
+
+    //the bucket counting now, replacing an expired one in its slot. A thread
+    //that read the clock just before another rotated the slot counts in the
+    //newer bucket
+    private Bucket current(long now) {
+        int slot = slot(now);
+        while (true) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.epoch >= now) {
+                return bucket;
+            }
+            Bucket fresh = new Bucket(now);
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    //whether bucket still counts towards the count buckets ending at now
+    private static boolean live(Bucket bucket, long now, int count) {
+        return bucket != null && bucket.epoch > now - count;
+    }
+
+    private long currentBucket() {
+        return clock.getAsLong() / bucketMillis;
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) bucketCount);
+    }
+}